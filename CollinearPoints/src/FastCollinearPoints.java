@@ -1,7 +1,7 @@
 /*************************************************************************
  *  Compilation:  javac LineSegment.java
  *  Execution:    none
- *  Dependencies: Point.java
+ *  Dependencies: Point.java StdRandom.java
  *
  * Simple class that examines 4 points at a time and checks whether they all lie on the same line segment, returning all such line segments.
  * This class uses sorting for faster calculation.
@@ -12,94 +12,117 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import edu.princeton.cs.algs4.StdRandom;
+
 public class FastCollinearPoints {
 
+    private static final int INSERTION_SORT_CUTOFF = 8; // runs shorter than this are insertion sorted
+
     private final List<LineSegment> lineSegments = new ArrayList<>(); // line segments that can be constructed
-    private final List<Point> segmentPoints = new ArrayList<>(); // starting & ending points of segments
     
     /**
-     * finds all line segments containing 4 points
+     * finds all line segments containing 4 or more points. The points are
+     * sorted once in natural order; then for each point p the slopes to all
+     * other points go into a primitive array that is sorted together with the
+     * points' indexes, and every run of 3 or more equal slopes is a segment.
+     * Along a line the natural order is the order on the line, so a segment
+     * is only reported from its smallest point, which is then its start, and
+     * it ends at the largest point of the run.
      * 
      * @param points
+     * @throws IllegalArgumentException if points or any point is null, or two points are equal
      */
     public FastCollinearPoints(Point[] points) {
         if (points == null) {
             throw new IllegalArgumentException();
         }
         
-        Point[] copy = new Point[points.length];
-        for (int i = 0; i < points.length; i++) {
-            copy[i] = points[i];
+        final int n = points.length;
+        final Point[] sorted = new Point[n];
+        for (int i = 0; i < n; i++) {
+            if (points[i] == null) {
+                throw new IllegalArgumentException();
+            }
+            sorted[i] = points[i];
         }
+        
+        Arrays.sort(sorted, Point.BY_NATURAL);
+        for (int i = 1; i < n; i++) {
+            if (sorted[i - 1].compareTo(sorted[i]) == 0) {
+                throw new IllegalArgumentException();
+            }
+        }
+        
+        final double[] slopes = new double[n - 1 > 0 ? n - 1 : 0];
+        final int[] indexes = new int[slopes.length];
+        for (int i = 0; i < n; i++) {
+            final Point p = sorted[i];
+            for (int j = 0, k = 0; j < n; j++) {
+                if (j != i) {
+                    slopes[k] = p.slopeTo(sorted[j]);
+                    indexes[k++] = j;
+                }
+            }
+            sort(slopes, indexes, 0, slopes.length - 1);
             
-        if (points.length >= 4) {
-            final List<Point> pointsOnLine = new ArrayList<>();
-            
-            for (int i = 0; i < points.length && copy.length > 3; i++) {
-                final Point p = points[i];
-                Arrays.sort(copy, p.slopeOrder());
-            
-                pointsOnLine.clear();
-                pointsOnLine.add(p);
-                for (int j = 1; j < copy.length - 2; j++) {
-                    final Point  q = copy[j],
-                                r = copy[j + 1],
-                                s = copy[j + 2];
-                    
-                    if (p.compareTo(q) == 0 || p.compareTo(r) == 0 || p.compareTo(s) == 0 ||
-                            q.compareTo(r) == 0 || q.compareTo(s) == 0 || r.compareTo(s) == 0) { 
-                        throw new IllegalArgumentException();
-                    }
-                    
-                    if (p.slopeOrder().compare(q, r) == 0 && q.slopeOrder().compare(r, s) == 0) {
-                        pointsOnLine.add(q);
-                        pointsOnLine.add(r);
-                        pointsOnLine.add(s);
-                    }
+            // one pass over maximal runs of equal slopes
+            for (int lo = 0, hi; lo < slopes.length; lo = hi) {
+                int min = indexes[lo], max = indexes[lo];
+                for (hi = lo + 1; hi < slopes.length && slopes[hi] == slopes[lo]; hi++) {
+                    min = Math.min(min, indexes[hi]);
+                    max = Math.max(max, indexes[hi]);
                 }
                 
-                if (pointsOnLine.size() > 3) {
-                    final Point[] array = new Point[pointsOnLine.size()];
-                    for (int j = 0; j < pointsOnLine.size(); j++) {
-                        array[j] = pointsOnLine.get(j);
-                    }
-                    Arrays.sort(array, Point.BY_NATURAL);
-
-                    final Point start = array[0], end = array[array.length - 1];
-                    boolean isSameSegment = false;
-                    for (int j = 0; j < segmentPoints.size(); j += 2) {
-                        if (segmentPoints.get(j).compareTo(start) == 0 && segmentPoints.get(j + 1).compareTo(end) == 0) {
-                            isSameSegment = true;
-                            break;
-                        }
-                    }
-                    if (!isSameSegment) {
-                        segmentPoints.add(start);
-                        segmentPoints.add(end);
-                        lineSegments.add(new LineSegment(start, end));
-                    }
+                if (hi - lo >= 3 && i < min) {
+                    lineSegments.add(new LineSegment(p, sorted[max]));
                 }
             }
-            
+        }
+    }
 
-        } else {
-            if (points.length == 1 && points[0] == null) {
-                throw new IllegalArgumentException();
+    /**
+     * sorts slopes[lo, hi] and applies the same permutation to indexes
+     * (3-way quicksort, so runs of equal slopes cost no extra comparisons);
+     * the pivot is chosen at random, so no order of the slopes makes the
+     * sort quadratic in expectation
+     */
+    private static void sort(final double[] slopes, final int[] indexes, int lo, int hi) {
+        while (hi - lo >= INSERTION_SORT_CUTOFF) {
+            swap(slopes, indexes, lo, lo + StdRandom.uniform(hi - lo + 1));
+            final double pivot = slopes[lo];
+            int lt = lo, gt = hi, i = lo + 1;
+            while (i <= gt) {
+                if (slopes[i] < pivot) swap(slopes, indexes, lt++, i++);
+                else if (slopes[i] > pivot) swap(slopes, indexes, i, gt--);
+                else i++;
             }
             
-            for (int i = 0; i < points.length - 1; i++) {
-                for (int j = i + 1; j < points.length; j++) {
-                    final Point p = points[i],
-                                q = points[j];
-                    
-                    if (p.compareTo(q) == 0) { 
-                        throw new IllegalArgumentException();
-                    }
-                }
+            // recurse into the smaller side, loop on the larger one
+            if (lt - lo < hi - gt) {
+                sort(slopes, indexes, lo, lt - 1);
+                lo = gt + 1;
+            } else {
+                sort(slopes, indexes, gt + 1, hi);
+                hi = lt - 1;
+            }
+        }
+        
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && slopes[j] < slopes[j - 1]; j--) {
+                swap(slopes, indexes, j, j - 1);
             }
         }
     }
 
+    private static void swap(final double[] slopes, final int[] indexes, final int i, final int j) {
+        final double slope = slopes[i];
+        slopes[i] = slopes[j];
+        slopes[j] = slope;
+        final int index = indexes[i];
+        indexes[i] = indexes[j];
+        indexes[j] = index;
+    }
+
     /**
      * the number of line segments
      * 
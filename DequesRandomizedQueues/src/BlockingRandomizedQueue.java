@@ -0,0 +1,262 @@
+/******************************************************************************
+ * Compilation: javac BlockingRandomizedQueue.java
+ * Dependencies: java.util.concurrent.Semaphore.java
+ *              java.util.concurrent.ThreadLocalRandom.java
+ *              java.util.concurrent.locks.ReentrantLock.java
+ *
+ * BlockingRandomizedQueue.
+ *
+ ******************************************************************************/
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * Thread-safe, bounded randomized queue. {@link #enqueue(Object)} blocks while
+ * the queue is full and {@link #dequeue()} blocks while it is empty; timed
+ * variants give up after a timeout.
+ *
+ * Items are spread over striped segments, each guarded by its own lock, so
+ * producers and consumers mostly work on different segments. A dequeue picks
+ * a segment with probability proportional to the number of items it holds,
+ * read from the segments' sizes without locking, and removes a random item
+ * from it with a swap-remove, like {@link RandomizedQueue}; every item is
+ * therefore equally likely to be dequeued, up to the updates other threads
+ * make between reading the sizes and locking the segment. An enqueue adds
+ * its item to the smaller of two random segments, which keeps the segments
+ * evenly filled.
+ *
+ * @author mb
+ *
+ */
+public class BlockingRandomizedQueue<Item> {
+
+    private final int capacity; // maximum number of items
+    private final Segment[] segments; // striped storage
+    private final Semaphore slots; // permits for free space
+    private final Semaphore items; // permits for stored items
+
+    /**
+     * construct an empty queue holding at most {@code capacity} items, striped
+     * over one segment per available processor
+     *
+     * @param capacity maximum number of items
+     * @throws IllegalArgumentException if capacity is less than 1
+     */
+    public BlockingRandomizedQueue(int capacity) {
+        this(capacity, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * construct an empty queue holding at most {@code capacity} items, striped
+     * over {@code stripes} segments
+     *
+     * @param capacity maximum number of items
+     * @param stripes number of segments
+     * @throws IllegalArgumentException if capacity or stripes is less than 1
+     */
+    public BlockingRandomizedQueue(int capacity, int stripes) {
+        if (capacity < 1 || stripes < 1)
+            throw new IllegalArgumentException("capacity or stripes is less than 1");
+
+        this.capacity = capacity;
+        this.segments = new Segment[stripes];
+        for (int i = 0; i < stripes; i++) {
+            segments[i] = new Segment();
+        }
+        this.slots = new Semaphore(capacity);
+        this.items = new Semaphore(0);
+    }
+
+    /**
+     * is the queue empty? The answer may be stale as soon as it is returned.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return items.availablePermits() == 0;
+    }
+
+    /**
+     * estimate of the number of items on the queue
+     *
+     * @return
+     */
+    public int size() {
+        return capacity - slots.availablePermits();
+    }
+
+    /**
+     * maximum number of items on the queue
+     *
+     * @return
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * add the item, waiting for free space if necessary
+     *
+     * @param item item to be added
+     * @throws IllegalArgumentException if the client calls method with a null argument
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void enqueue(Item item) throws InterruptedException {
+        if (item == null)
+            throw new IllegalArgumentException();
+
+        slots.acquire();
+        insert(item);
+    }
+
+    /**
+     * add the item, waiting up to the given time for free space
+     *
+     * @param item item to be added
+     * @param timeout how long to wait
+     * @param unit unit of timeout
+     * @return true if the item was added, false if the queue stayed full
+     * @throws IllegalArgumentException if item or unit is null
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean enqueue(Item item, long timeout, TimeUnit unit) throws InterruptedException {
+        if (item == null || unit == null)
+            throw new IllegalArgumentException();
+
+        if (!slots.tryAcquire(timeout, unit)) return false;
+        insert(item);
+        return true;
+    }
+
+    /**
+     * remove and return a random item, waiting for one if necessary
+     *
+     * @return
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Item dequeue() throws InterruptedException {
+        items.acquire();
+        return remove();
+    }
+
+    /**
+     * remove and return a random item, waiting up to the given time for one
+     *
+     * @param timeout how long to wait
+     * @param unit unit of timeout
+     * @return the item, or null if the queue stayed empty
+     * @throws IllegalArgumentException if unit is null
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Item dequeue(long timeout, TimeUnit unit) throws InterruptedException {
+        if (unit == null)
+            throw new IllegalArgumentException();
+
+        if (!items.tryAcquire(timeout, unit)) return null;
+        return remove();
+    }
+
+    /**
+     * stores an item for which a slot permit is held, then publishes it
+     */
+    private void insert(final Item item) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        // the smaller of two random segments
+        Segment segment = segments[random.nextInt(segments.length)];
+        final Segment other = segments[random.nextInt(segments.length)];
+        if (other.size < segment.size) segment = other;
+
+        segment.lock.lock();
+        try {
+            segment.add(item);
+        } finally {
+            segment.lock.unlock();
+        }
+        items.release();
+    }
+
+    /**
+     * removes a random item for which an item permit is held, then frees its slot
+     */
+    @SuppressWarnings("unchecked")
+    private Item remove() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        // the permit guarantees an item exists, but concurrent removes may
+        // empty the chosen segment first, in which case the choice is repeated
+        Object item = null;
+        while (item == null) {
+            long total = 0;
+            for (Segment segment : segments) {
+                total += segment.size;
+            }
+            if (total == 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            // the segment holding the r-th item, counting across segments
+            long r = random.nextLong(total);
+            int s = 0;
+            while (s < segments.length - 1 && r >= segments[s].size) {
+                r -= segments[s].size;
+                s++;
+            }
+
+            final Segment segment = segments[s];
+            segment.lock.lock();
+            try {
+                if (segment.size > 0) item = segment.removeRandom(random);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+
+        slots.release();
+        return (Item) item;
+    }
+
+    /**
+     * Lock-guarded resizing array of items
+     *
+     * @author mb
+     */
+    private static class Segment {
+        private static final int MIN_CAPACITY = 8;
+
+        final ReentrantLock lock = new ReentrantLock();
+        private Object[] items = new Object[MIN_CAPACITY]; // items[0..size-1]
+        volatile int size; // number of items, read without the lock as a hint
+
+        void add(final Object item) {
+            if (size == items.length) {
+                final Object[] copy = new Object[items.length << 1];
+                System.arraycopy(items, 0, copy, 0, size);
+                items = copy;
+            }
+            items[size] = item;
+            size = size + 1;
+        }
+
+        Object removeRandom(final ThreadLocalRandom random) {
+            final int last = size - 1;
+            final int index = random.nextInt(size);
+            final Object item = items[index];
+            items[index] = items[last];
+            items[last] = null; // help GC
+            size = last;
+
+            if (items.length > MIN_CAPACITY && last <= items.length >> 2) {
+                final Object[] copy = new Object[items.length >> 1];
+                System.arraycopy(items, 0, copy, 0, last);
+                items = copy;
+            }
+            return item;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/******************************************************************************
+ * Compilation: javac BlockingRandomizedQueueBenchmark.java
+ * Execution: java BlockingRandomizedQueueBenchmark n maxThreads
+ * Dependencies: BlockingRandomizedQueue.java RandomizedQueue.java
+ *
+ * BlockingRandomizedQueueBenchmark.
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.StdOut;
+
+/**
+ *
+ * Throughput benchmark of {@link BlockingRandomizedQueue} against a
+ * {@link RandomizedQueue} behind a single monitor. For each thread count t,
+ * t producers and t consumers move n items in total through a queue of
+ * bounded capacity.
+ *
+ * @author mb
+ *
+ */
+public class BlockingRandomizedQueueBenchmark {
+
+    private static final int CAPACITY = 1024;
+
+    private static long checksum; // sum of all dequeued items, printed so the work is not optimized away
+
+    /**
+     * Blocking operations used by the workload
+     */
+    private interface Ops {
+        void enqueue(Integer item) throws InterruptedException;
+        Integer dequeue() throws InterruptedException;
+    }
+
+    private static Ops striped() {
+        final BlockingRandomizedQueue<Integer> queue = new BlockingRandomizedQueue<>(CAPACITY);
+        return new Ops() {
+            public void enqueue(Integer item) throws InterruptedException { queue.enqueue(item); }
+            public Integer dequeue() throws InterruptedException { return queue.dequeue(); }
+        };
+    }
+
+    private static Ops synchronizedWrapper() {
+        final RandomizedQueue<Integer> queue = new RandomizedQueue<>();
+        return new Ops() {
+            public synchronized void enqueue(Integer item) throws InterruptedException {
+                while (queue.size() == CAPACITY) wait();
+                queue.enqueue(item);
+                notifyAll();
+            }
+
+            public synchronized Integer dequeue() throws InterruptedException {
+                while (queue.isEmpty()) wait();
+                final Integer item = queue.dequeue();
+                notifyAll();
+                return item;
+            }
+        };
+    }
+
+    /**
+     * moves n items from {@code threads} producers to {@code threads} consumers
+     *
+     * @return elapsed time in seconds
+     */
+    private static double run(final Ops queue, final int n, final int threads) throws InterruptedException {
+        final Thread[] workers = new Thread[2 * threads];
+        final long[] sums = new long[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            final int count = n / threads + (t < n % threads ? 1 : 0);
+            workers[2 * t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < count; i++) queue.enqueue(i);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            workers[2 * t + 1] = new Thread(() -> {
+                // local accumulator, written to the shared array once, so consumers do not false-share
+                long sum = 0;
+                try {
+                    for (int i = 0; i < count; i++) sum += queue.dequeue();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sums[id] = sum;
+            });
+        }
+
+        final long start = System.nanoTime();
+        for (Thread worker : workers) worker.start();
+        for (Thread worker : workers) worker.join();
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+
+        for (long sum : sums) checksum += sum;
+        return elapsed;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        // warm up both implementations
+        for (int i = 0; i < 3; i++) {
+            run(striped(), n, maxThreads);
+            run(synchronizedWrapper(), n, maxThreads);
+        }
+
+        StdOut.printf("%8s %26s %26s\n", "threads", "BlockingRandomizedQueue", "synchronized wrapper");
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            final double striped = run(striped(), n, threads);
+            final double wrapped = run(synchronizedWrapper(), n, threads);
+            StdOut.printf("%8d %20.1f Mop/s %20.1f Mop/s\n", threads, n / striped / 1e6, n / wrapped / 1e6);
+        }
+        StdOut.printf("(checksum %d)\n", checksum);
+    }
+}
@@ -1,13 +1,18 @@
 /******************************************************************************
  * Compilation: javac Deque.java  
  * Dependencies: java.util.Iterator.java java.util.NoSuchElementException.java 
+ *              java.util.Spliterator.java java.util.Spliterators.java
  *
  * Deque.
  *
  ******************************************************************************/
 
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 
 /**
  * A double-ended queue or deque (pronounced “deck”) is a generalization of a
@@ -21,6 +26,7 @@ public class Deque<Item> implements Iterable<Item> {
     
     private int size = 0; // number of items in deque
     private Node<Item> first, last; // first & last references 
+    private int modCount = 0; // number of structural modifications, for fail-fast iteration
 
     /**
      * construct an empty deque
@@ -64,6 +70,7 @@ public class Deque<Item> implements Iterable<Item> {
         else
             f.prev = newNode;
         size++;
+        modCount++;
     }
 
     /**
@@ -84,6 +91,7 @@ public class Deque<Item> implements Iterable<Item> {
         else
             l.next = newNode;
         size++;
+        modCount++;
     }
 
     /**
@@ -106,6 +114,7 @@ public class Deque<Item> implements Iterable<Item> {
         else
             next.prev = null;
         size--;
+        modCount++;
         
         return element;
     }
@@ -130,6 +139,7 @@ public class Deque<Item> implements Iterable<Item> {
         else
             prev.next = null;
         size--;
+        modCount++;
         
         return element;
     }
@@ -140,6 +150,36 @@ public class Deque<Item> implements Iterable<Item> {
     public Iterator<Item> iterator() {
         return new ArrayIterator();
     }
+
+    /**
+     * performs the action for each item in order from front to end, without
+     * allocating an iterator
+     * 
+     * @param action action to be performed
+     * @throws IllegalArgumentException if the client calls method with a null argument
+     * @throws ConcurrentModificationException if the deque is modified by the action
+     */
+    @Override
+    public void forEach(Consumer<? super Item> action) {
+        if (action == null)
+            throw new IllegalArgumentException();
+        
+        final int expectedModCount = modCount;
+        for (Node<Item> x = first; x != null && modCount == expectedModCount; x = x.next) {
+            action.accept(x.item);
+        }
+        if (modCount != expectedModCount)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * return a sized, fail-fast spliterator over items in order from front to end;
+     * splits hand out batches of items, as the linked list cannot be split in the middle
+     */
+    @Override
+    public Spliterator<Item> spliterator() {
+        return Spliterators.spliterator(iterator(), size, Spliterator.ORDERED | Spliterator.NONNULL);
+    }
     
     /**
      * Simple representation of node
@@ -172,19 +212,14 @@ public class Deque<Item> implements Iterable<Item> {
      * @author mb
      */
     private class ArrayIterator implements Iterator<Item> {
-        private Node<Item> lastReturned; // last item returned
-        private Node<Item> next; // next item
-        private int nextIndex; // next index of the item
-        
-        public ArrayIterator() {
-            next = first;
-        }
+        private Node<Item> next = first; // next item
+        private final int expectedModCount = modCount; // modifications seen when iterator was created
         
         /**
          * checks if there is next item to iterate over it
          */
         public boolean hasNext() {
-            return nextIndex < size;
+            return next != null;
         }
 
         /**
@@ -197,14 +232,15 @@ public class Deque<Item> implements Iterable<Item> {
         /**
          * Gets next element 
          * @throws NoSuchElementException if the client calls method in the iterator when there are no more items to return
+         * @throws ConcurrentModificationException if the deque was modified since the iterator was created
          */
         public Item next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
             if (!hasNext()) throw new NoSuchElementException();
             
-            lastReturned = next;
+            final Item item = next.item;
             next = next.next;
-            nextIndex++;
-            return lastReturned.item;
+            return item;
         }
     }
 }
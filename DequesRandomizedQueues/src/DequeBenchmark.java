@@ -0,0 +1,76 @@
+/******************************************************************************
+ * Compilation: javac DequeBenchmark.java
+ * Execution: java DequeBenchmark n trials
+ * Dependencies: Deque.java ResizingArrayDeque.java
+ *              edu.princeton.cs.algs4.Stopwatch.java
+ *
+ * DequeBenchmark.
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ *
+ * Client program that compares the linked {@link Deque} against the
+ * array-backed {@link ResizingArrayDeque} when used as a work queue: n items
+ * are pushed at the end and then consumed from the front, with a short burst
+ * of mixed operations in between to exercise wrap-around and resizing.
+ *
+ * @author mb
+ *
+ */
+public class DequeBenchmark {
+
+    private static final int WARMUP_TRIALS = 3;
+
+    private static long checksum; // keeps the JIT from eliminating the work
+
+    private static double timeLinked(final int n) {
+        final Stopwatch stopwatch = new Stopwatch();
+        final Deque<Integer> deque = new Deque<>();
+        for (int i = 0; i < n; i++) {
+            deque.addLast(i);
+            if ((i & 3) == 0) deque.addFirst(deque.removeLast());
+        }
+        while (!deque.isEmpty()) {
+            checksum += deque.removeFirst();
+        }
+        return stopwatch.elapsedTime();
+    }
+
+    private static double timeArray(final int n) {
+        final Stopwatch stopwatch = new Stopwatch();
+        final ResizingArrayDeque<Integer> deque = new ResizingArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            deque.addLast(i);
+            if ((i & 3) == 0) deque.addFirst(deque.removeLast());
+        }
+        while (!deque.isEmpty()) {
+            checksum += deque.removeFirst();
+        }
+        return stopwatch.elapsedTime();
+    }
+
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int trials = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        for (int i = 0; i < WARMUP_TRIALS; i++) {
+            timeLinked(n);
+            timeArray(n);
+        }
+
+        double linked = 0.0, array = 0.0;
+        for (int i = 0; i < trials; i++) {
+            linked += timeLinked(n);
+            array += timeArray(n);
+        }
+
+        StdOut.printf("n = %d, trials = %d\n", n, trials);
+        StdOut.printf("Deque              %8.3f s/trial\n", linked / trials);
+        StdOut.printf("ResizingArrayDeque %8.3f s/trial\n", array / trials);
+        StdOut.printf("(checksum %d)\n", checksum);
+    }
+}
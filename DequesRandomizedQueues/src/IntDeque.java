@@ -0,0 +1,266 @@
+/******************************************************************************
+ * Compilation: javac IntDeque.java
+ * Dependencies: java.util.ConcurrentModificationException.java
+ *              java.util.NoSuchElementException.java
+ *              java.util.PrimitiveIterator.java
+ *              java.util.function.IntConsumer.java
+ *
+ * IntDeque.
+ *
+ ******************************************************************************/
+
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ *
+ * Double-ended queue of {@code int} values. Same API shape as
+ * {@link ResizingArrayDeque}, but values are stored unboxed in a circular
+ * {@code int[]}, so adding, removing and iterating never allocate (apart from
+ * resizing) as long as values are read with {@link #forEach(IntConsumer)} or
+ * {@link PrimitiveIterator.OfInt#nextInt()}; the enhanced for loop and
+ * {@link #forEach(java.util.function.Consumer)} go through the boxed
+ * {@link Iterable} methods.
+ *
+ * @author mb
+ *
+ */
+public class IntDeque implements Iterable<Integer> {
+
+    private static final int MIN_CAPACITY = 8; // initial & minimum array length
+
+    private int[] items; // circular buffer, length is always a power of two
+    private int head = 0; // index of the first value
+    private int size = 0; // number of values in deque
+    private int modCount = 0; // number of structural modifications, for fail-fast iteration
+
+    /**
+     * construct an empty deque
+     */
+    public IntDeque() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * construct an empty deque able to hold {@code capacity} values without resizing
+     *
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if capacity is negative
+     */
+    public IntDeque(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity is negative");
+
+        items = new int[capacityFor(capacity)];
+    }
+
+    /**
+     * is the deque empty?
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * return the number of values on the deque
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * add the value to the front
+     *
+     * @param value value to be added
+     */
+    public void addFirst(int value) {
+        if (size == items.length)
+            resize(items.length << 1);
+
+        head = (head - 1) & (items.length - 1);
+        items[head] = value;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * add the value to the end
+     *
+     * @param value value to be added
+     */
+    public void addLast(int value) {
+        if (size == items.length)
+            resize(items.length << 1);
+
+        items[(head + size) & (items.length - 1)] = value;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * add all values to the end, in array order
+     *
+     * @param source values to be added
+     * @throws IllegalArgumentException if source is null
+     */
+    public void addAll(int[] source) {
+        if (source == null)
+            throw new IllegalArgumentException();
+
+        if (size + source.length > items.length)
+            resize(capacityFor(size + source.length));
+
+        final int tail = (head + size) & (items.length - 1);
+        final int firstPart = Math.min(source.length, items.length - tail);
+        System.arraycopy(source, 0, items, tail, firstPart);
+        System.arraycopy(source, firstPart, items, 0, source.length - firstPart);
+        size += source.length;
+        modCount++;
+    }
+
+    /**
+     * remove and return the value from the front
+     *
+     * @throws NoSuchElementException if the client calls method when the deque is empty
+     * @return
+     */
+    public int removeFirst() {
+        if (size == 0)
+            throw new NoSuchElementException();
+
+        final int value = items[head];
+        head = (head + 1) & (items.length - 1);
+        size--;
+        modCount++;
+        shrinkIfQuarterFull();
+
+        return value;
+    }
+
+    /**
+     * remove and return the value from the end
+     *
+     * @throws NoSuchElementException if the client calls method when the deque is empty
+     * @return
+     */
+    public int removeLast() {
+        if (size == 0)
+            throw new NoSuchElementException();
+
+        final int value = items[(head + size - 1) & (items.length - 1)];
+        size--;
+        modCount++;
+        shrinkIfQuarterFull();
+
+        return value;
+    }
+
+    /**
+     * return a fail-fast iterator over values in order from front to end;
+     * {@link PrimitiveIterator.OfInt#nextInt()} reads values without boxing,
+     * while {@code next()} and the enhanced for loop box each one
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new ArrayIterator();
+    }
+
+    /**
+     * performs the action for each value in order from front to end, without
+     * boxing and without allocating an iterator; pass a IntConsumer variable,
+     * a method reference or an explicitly typed lambda such as
+     * {@code (int v) -> ...}, since an implicitly typed lambda also fits the
+     * boxed {@code forEach} and is ambiguous
+     *
+     * @param action action to be performed
+     * @throws IllegalArgumentException if the client calls method with a null argument
+     * @throws ConcurrentModificationException if the deque is modified by the action
+     */
+    public void forEach(IntConsumer action) {
+        if (action == null)
+            throw new IllegalArgumentException();
+
+        final int expectedModCount = modCount;
+        final int[] a = items;
+        final int mask = a.length - 1;
+        for (int i = 0; i < size && modCount == expectedModCount; i++) {
+            action.accept(a[(head + i) & mask]);
+        }
+        if (modCount != expectedModCount)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * halves the array once it is only one-quarter full
+     */
+    private void shrinkIfQuarterFull() {
+        if (items.length > MIN_CAPACITY && size <= items.length >> 2)
+            resize(items.length >> 1);
+    }
+
+    /**
+     * moves values to a new array of given length, with the first value at index 0
+     */
+    private void resize(final int capacity) {
+        final int[] copy = new int[capacity];
+        final int firstPart = Math.min(size, items.length - head);
+        System.arraycopy(items, head, copy, 0, firstPart);
+        System.arraycopy(items, 0, copy, firstPart, size - firstPart);
+        items = copy;
+        head = 0;
+    }
+
+    /**
+     * smallest power of two that is at least {@code capacity} (and at least MIN_CAPACITY)
+     */
+    private static int capacityFor(final int capacity) {
+        if (capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity is too large");
+
+        int length = MIN_CAPACITY;
+        while (length < capacity)
+            length <<= 1;
+        return length;
+    }
+
+    /**
+     * Implementation of deque iterator
+     *
+     * @author mb
+     */
+    private class ArrayIterator implements PrimitiveIterator.OfInt {
+        private int nextIndex; // logical index of the next value
+        private final int expectedModCount = modCount; // modifications seen when iterator was created
+
+        /**
+         * checks if there is next value to iterate over it
+         */
+        public boolean hasNext() {
+            return nextIndex < size;
+        }
+
+        /**
+         * @throws UnsupportedOperationException if the client calls method in the iterator
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Gets next value
+         * @throws NoSuchElementException if the client calls method in the iterator when there are no more values to return
+         * @throws ConcurrentModificationException if the deque was modified since the iterator was created
+         */
+        public int nextInt() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (!hasNext()) throw new NoSuchElementException();
+
+            return items[(head + nextIndex++) & (items.length - 1)];
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/******************************************************************************
+ * Compilation: javac OffHeapRecordDeque.java
+ * Dependencies: LongDeque.java java.nio.ByteBuffer.java
+ *              java.nio.channels.FileChannel.java
+ *
+ * OffHeapRecordDeque.
+ *
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * Double-ended queue of fixed-width binary records stored outside the Java
+ * heap. Records live in a chain of direct {@link ByteBuffer} chunks, so adding
+ * and removing at either end takes constant time and the garbage collector
+ * never sees individual records. Emptied chunks are recycled through a small
+ * pool.
+ *
+ * Optionally, once more than a given number of bytes is resident, chunks in
+ * the interior of the chain are spilled to a temporary file and read back
+ * when they become the first or last chunk again. The first and last chunks
+ * are always resident, so the threshold is soft by at most one chunk.
+ *
+ * @author mb
+ *
+ */
+public class OffHeapRecordDeque implements AutoCloseable {
+
+    private static final int DEFAULT_CHUNK_BYTES = 1 << 16; // default chunk size
+    private static final int MAX_POOLED_CHUNKS = 16; // emptied chunks kept for reuse
+
+    private final int recordSize; // bytes per record
+    private final int recordsPerChunk; // records per chunk
+    private final int chunkBytes; // bytes per chunk
+
+    private final int maxResidentChunks; // resident chunks before spilling; MAX_VALUE disables spilling
+    private final Path spillDirectory; // where the spill file is created
+    private FileChannel spillFile; // created on first spill
+    private long spillSlots = 0; // number of chunk slots in spill file
+    private LongDeque freeSpillSlots = new LongDeque(); // reusable slots in spill file
+
+    private final List<ByteBuffer> pool = new ArrayList<>(); // recycled chunk buffers
+    private int residentChunks = 0; // chunks currently holding a buffer
+
+    private Chunk first, last; // first & last chunks
+    private long size = 0; // number of records in deque
+
+    /**
+     * construct an empty deque of records of {@code recordSize} bytes, kept in memory
+     *
+     * @param recordSize bytes per record
+     * @throws IllegalArgumentException if recordSize is less than 1
+     */
+    public OffHeapRecordDeque(int recordSize) {
+        this(recordSize, Math.max(1, DEFAULT_CHUNK_BYTES / Math.max(1, recordSize)));
+    }
+
+    /**
+     * construct an empty deque of records of {@code recordSize} bytes, kept in memory
+     *
+     * @param recordSize bytes per record
+     * @param recordsPerChunk records per off-heap chunk
+     * @throws IllegalArgumentException if either argument is less than 1 or a chunk would exceed 2 GB
+     */
+    public OffHeapRecordDeque(int recordSize, int recordsPerChunk) {
+        this(recordSize, recordsPerChunk, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * construct an empty deque of records of {@code recordSize} bytes that
+     * spills to a temporary file in {@code spillDirectory} once more than
+     * {@code maxResidentBytes} are held in memory
+     *
+     * @param recordSize bytes per record
+     * @param recordsPerChunk records per off-heap chunk
+     * @param maxResidentBytes memory threshold for spilling
+     * @param spillDirectory directory for the spill file; null disables spilling
+     * @throws IllegalArgumentException if any size is less than 1 or a chunk would exceed 2 GB
+     */
+    public OffHeapRecordDeque(int recordSize, int recordsPerChunk, long maxResidentBytes, Path spillDirectory) {
+        if (recordSize < 1 || recordsPerChunk < 1 || maxResidentBytes < 1)
+            throw new IllegalArgumentException("size is less than 1");
+        if ((long) recordSize * recordsPerChunk > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("chunk is too large");
+
+        this.recordSize = recordSize;
+        this.recordsPerChunk = recordsPerChunk;
+        this.chunkBytes = recordSize * recordsPerChunk;
+        this.spillDirectory = spillDirectory;
+        this.maxResidentChunks = spillDirectory == null
+                ? Integer.MAX_VALUE
+                : (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxResidentBytes / chunkBytes));
+    }
+
+    /**
+     * is the deque empty?
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * return the number of records on the deque
+     *
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * bytes per record
+     *
+     * @return
+     */
+    public int recordSize() {
+        return recordSize;
+    }
+
+    /**
+     * add the record to the front; consumes exactly {@code recordSize} bytes
+     * of {@code record}
+     *
+     * @param record buffer holding the record between its position and limit
+     * @throws IllegalArgumentException if record is null or does not hold exactly one record
+     */
+    public void addFirst(ByteBuffer record) {
+        assertRecord(record, true);
+
+        if (first == null) {
+            first = last = newChunk(recordsPerChunk);
+        } else if (first.start == 0) {
+            final Chunk oldFirst = first;
+            if (oldFirst != last) spillIfNeeded(oldFirst);
+            first = newChunk(recordsPerChunk);
+            first.next = oldFirst;
+            oldFirst.prev = first;
+        }
+
+        first.start--;
+        write(first, first.start, record);
+        size++;
+    }
+
+    /**
+     * add the record to the end; consumes exactly {@code recordSize} bytes of
+     * {@code record}
+     *
+     * @param record buffer holding the record between its position and limit
+     * @throws IllegalArgumentException if record is null or does not hold exactly one record
+     */
+    public void addLast(ByteBuffer record) {
+        assertRecord(record, true);
+
+        if (last == null) {
+            first = last = newChunk(0);
+        } else if (last.end == recordsPerChunk) {
+            final Chunk oldLast = last;
+            if (oldLast != first) spillIfNeeded(oldLast);
+            last = newChunk(0);
+            last.prev = oldLast;
+            oldLast.next = last;
+        }
+
+        write(last, last.end, record);
+        last.end++;
+        size++;
+    }
+
+    /**
+     * remove the record from the front and copy it into {@code target}
+     *
+     * @param target buffer with room for one record
+     * @throws IllegalArgumentException if target is null or has less than {@code recordSize} bytes remaining
+     * @throws NoSuchElementException if the client calls method when the deque is empty
+     */
+    public void removeFirst(ByteBuffer target) {
+        assertRecord(target, false);
+        if (size == 0)
+            throw new NoSuchElementException();
+
+        read(first, first.start, target);
+        first.start++;
+        size--;
+
+        if (first.start == first.end) {
+            final Chunk next = first.next;
+            release(first);
+            first = next;
+            if (next == null) {
+                last = null;
+            } else {
+                next.prev = null;
+                load(next);
+            }
+        }
+    }
+
+    /**
+     * remove the record from the end and copy it into {@code target}
+     *
+     * @param target buffer with room for one record
+     * @throws IllegalArgumentException if target is null or has less than {@code recordSize} bytes remaining
+     * @throws NoSuchElementException if the client calls method when the deque is empty
+     */
+    public void removeLast(ByteBuffer target) {
+        assertRecord(target, false);
+        if (size == 0)
+            throw new NoSuchElementException();
+
+        last.end--;
+        read(last, last.end, target);
+        size--;
+
+        if (last.start == last.end) {
+            final Chunk prev = last.prev;
+            release(last);
+            last = prev;
+            if (prev == null) {
+                first = null;
+            } else {
+                prev.next = null;
+                load(prev);
+            }
+        }
+    }
+
+    /**
+     * number of chunks currently spilled to disk
+     *
+     * @return
+     */
+    public long spilledChunks() {
+        return spillSlots - freeSpillSlots.size();
+    }
+
+    /**
+     * drops all records and deletes the spill file, if any; the deque is
+     * empty afterwards and may be used again
+     */
+    @Override
+    public void close() {
+        first = last = null;
+        size = 0;
+        pool.clear();
+        residentChunks = 0;
+        spillSlots = 0;
+        freeSpillSlots = new LongDeque();
+        if (spillFile != null) {
+            try {
+                spillFile.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                spillFile = null;
+            }
+        }
+    }
+
+    private void assertRecord(final ByteBuffer buffer, final boolean exact) {
+        if (buffer == null)
+            throw new IllegalArgumentException();
+        if (exact ? buffer.remaining() != recordSize : buffer.remaining() < recordSize)
+            throw new IllegalArgumentException("buffer does not match record size " + recordSize);
+    }
+
+    private void write(final Chunk chunk, final int index, final ByteBuffer record) {
+        final ByteBuffer buffer = chunk.buffer;
+        buffer.limit(buffer.capacity()).position(index * recordSize);
+        buffer.put(record);
+    }
+
+    private void read(final Chunk chunk, final int index, final ByteBuffer target) {
+        final ByteBuffer buffer = chunk.buffer;
+        final int offset = index * recordSize;
+        buffer.limit(offset + recordSize).position(offset);
+        target.put(buffer);
+    }
+
+    /**
+     * new resident chunk whose records start (and end) at {@code index}
+     */
+    private Chunk newChunk(final int index) {
+        final Chunk chunk = new Chunk();
+        chunk.start = chunk.end = index;
+        chunk.buffer = acquireBuffer();
+        return chunk;
+    }
+
+    private ByteBuffer acquireBuffer() {
+        residentChunks++;
+        if (!pool.isEmpty()) return pool.remove(pool.size() - 1);
+        return ByteBuffer.allocateDirect(chunkBytes);
+    }
+
+    private void releaseBuffer(final ByteBuffer buffer) {
+        residentChunks--;
+        if (pool.size() < MAX_POOLED_CHUNKS) pool.add(buffer);
+    }
+
+    private void release(final Chunk chunk) {
+        if (chunk.buffer != null) {
+            releaseBuffer(chunk.buffer);
+            chunk.buffer = null;
+        } else {
+            freeSpillSlots.addLast(chunk.spillSlot);
+        }
+        chunk.prev = chunk.next = null;
+    }
+
+    /**
+     * writes an interior chunk to the spill file if too many chunks are resident
+     */
+    private void spillIfNeeded(final Chunk chunk) {
+        if (residentChunks < maxResidentChunks || chunk.buffer == null) return;
+
+        try {
+            if (spillFile == null) {
+                final Path path = Files.createTempFile(spillDirectory, "deque-", ".spill");
+                spillFile = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            }
+
+            final long slot = freeSpillSlots.isEmpty() ? spillSlots++ : freeSpillSlots.removeLast();
+            final ByteBuffer buffer = chunk.buffer;
+            buffer.clear();
+            long position = slot * chunkBytes;
+            while (buffer.hasRemaining()) {
+                position += spillFile.write(buffer, position);
+            }
+
+            releaseBuffer(buffer);
+            chunk.buffer = null;
+            chunk.spillSlot = slot;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * reads a spilled chunk back into memory
+     */
+    private void load(final Chunk chunk) {
+        if (chunk.buffer != null) return;
+
+        final ByteBuffer buffer = acquireBuffer();
+        buffer.clear();
+        try {
+            long position = chunk.spillSlot * chunkBytes;
+            while (buffer.hasRemaining()) {
+                final int n = spillFile.read(buffer, position);
+                if (n < 0) throw new IOException("spill file is truncated");
+                position += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        freeSpillSlots.addLast(chunk.spillSlot);
+        chunk.buffer = buffer;
+        chunk.spillSlot = -1;
+    }
+
+    /**
+     * Run of records [start, end) within one chunk; buffer is null while the
+     * chunk is spilled to disk
+     *
+     * @author mb
+     */
+    private static class Chunk {
+        ByteBuffer buffer; // record storage, null if spilled
+        long spillSlot = -1; // slot in spill file while spilled
+        int start; // index of the first record
+        int end; // one past the index of the last record
+        Chunk prev; // previous chunk
+        Chunk next; // next chunk
+    }
+}
@@ -1,48 +1,176 @@
 /******************************************************************************
- * Compilation: javac Permutation.java  
- * Dependencies: edu.princeton.cs.algs4.StdIn.java
+ * Compilation: javac Permutation.java
+ * Dependencies: RandomizedQueue.java edu.princeton.cs.algs4.StdRandom.java
  *
  * Permutation.
  *
  ******************************************************************************/
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
-import edu.princeton.cs.algs4.StdIn;
 import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
 
 /**
- * 
+ *
  * Client program Permutation.java that takes an integer k as a command-line
- * argument; reads in a sequence of strings from standard input using
- * StdIn.readString(); and prints exactly k of them, uniformly at random. Print
- * each item from the sequence at most once.
- * 
+ * argument; reads in a sequence of strings from standard input; and prints
+ * exactly k of them, uniformly at random. Print each item from the sequence
+ * at most once.
+ *
+ * The input is streamed through a reservoir of k items (Algorithm L, which
+ * jumps over a geometrically distributed number of items between
+ * replacements), so memory is proportional to k rather than to the input
+ * size, and skipped items are never turned into strings.
+ *
  * @author mb
  *
  */
 public class Permutation {
 
     public static void main(String[] args) {
-        final RandomizedQueue<String> rQueue;
-        
-        int k = Integer.parseInt(args[0]);
-        if (k > 0) {
-            rQueue = new RandomizedQueue<>();
-            while (!StdIn.isEmpty()) {
-                final String item = StdIn.readString();
-                rQueue.enqueue(item);
+        final int k = Integer.parseInt(args[0]);
+        if (k <= 0) return;
+
+        final String[] reservoir = sample(new TokenReader(System.in), k);
+
+        final RandomizedQueue<String> rQueue = new RandomizedQueue<>();
+        for (String item : reservoir) {
+            rQueue.enqueue(item);
+        }
+        while (!rQueue.isEmpty()) {
+            StdOut.printf("%s\n", rQueue.dequeue());
+        }
+    }
+
+    /**
+     * uniformly random subset of (at most) k tokens of the input, using
+     * Algorithm L reservoir sampling
+     *
+     * @param in token source
+     * @param k reservoir size
+     * @return sampled tokens; fewer than k if the input is shorter
+     */
+    private static String[] sample(final TokenReader in, final int k) {
+        final String[] reservoir = new String[k];
+
+        int filled = 0;
+        while (filled < k) {
+            final String item = in.next();
+            if (item == null) return Arrays.copyOf(reservoir, filled);
+            reservoir[filled++] = item;
+        }
+
+        double w = Math.exp(Math.log(randomOpen()) / k);
+        while (true) {
+            final long skip = (long) Math.floor(Math.log(randomOpen()) / Math.log1p(-w));
+            if (in.skip(skip) < skip) break;
+
+            final String item = in.next();
+            if (item == null) break;
+
+            reservoir[StdRandom.uniform(k)] = item;
+            w *= Math.exp(Math.log(randomOpen()) / k);
+        }
+
+        return reservoir;
+    }
+
+    /**
+     * uniformly random real number in (0, 1]
+     */
+    private static double randomOpen() {
+        return 1.0 - StdRandom.uniform();
+    }
+
+    /**
+     * Buffered whitespace tokenizer over a byte stream. Tokens are only
+     * decoded to strings when requested; skipped tokens are scanned in the
+     * buffer without any allocation.
+     *
+     * @author mb
+     */
+    private static class TokenReader {
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0; // next byte to read in buffer
+        private int limit = 0; // number of valid bytes in buffer
+        private byte[] token = new byte[64]; // bytes of the token being read
+
+        public TokenReader(final InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * next token, or null at end of input
+         */
+        public String next() {
+            if (!skipWhitespace()) return null;
+
+            int length = 0;
+            int b;
+            while ((b = read()) > ' ') {
+                if (length == token.length) token = Arrays.copyOf(token, length << 1);
+                token[length++] = (byte) b;
             }
-            
-            Iterator<String> it = rQueue.iterator();
-            while (k > 0) {
-                StdOut.printf("%s\n", it.next());
-                k--;
+            return new String(token, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * skips up to n tokens
+         *
+         * @return number of tokens actually skipped
+         */
+        public long skip(final long n) {
+            long skipped = 0;
+            while (skipped < n && skipWhitespace()) {
+                while (read() > ' ') {
+                    // consume token bytes
+                }
+                skipped++;
             }
+            return skipped;
         }
-        
-        
-        
-    }
 
+        /**
+         * advances to the first byte of the next token
+         *
+         * @return false at end of input
+         */
+        private boolean skipWhitespace() {
+            while (true) {
+                if (position == limit && !fill()) return false;
+                if ((buffer[position] & 0xff) > ' ') return true;
+                position++;
+            }
+        }
+
+        /**
+         * next byte as an unsigned value, or -1 at end of input
+         */
+        private int read() {
+            if (position == limit && !fill()) return -1;
+            return buffer[position++] & 0xff;
+        }
+
+        private boolean fill() {
+            try {
+                limit = in.read(buffer, 0, buffer.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return false;
+            }
+            return true;
+        }
+    }
 }
@@ -1,14 +1,24 @@
 /******************************************************************************
  * Compilation: javac RandomizedQueue.java  
- * Dependencies: java.util.Iterator.java java.util.NoSuchElementException.java 
+ * Dependencies: java.util.ArrayList.java java.util.Arrays.java java.util.HashSet.java
+ *              java.util.Iterator.java java.util.List.java
+ *              java.util.NoSuchElementException.java java.util.Spliterator.java
  *              edu.princeton.cs.algs4.StdRandom.java
  *
  * RandomizedQueue.
  *
  ******************************************************************************/
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
 import edu.princeton.cs.algs4.StdRandom;
 
@@ -16,20 +26,26 @@ import edu.princeton.cs.algs4.StdRandom;
  * 
  * A randomized queue is similar to a stack or queue, except that the item
  * removed is chosen uniformly at random from items in the data structure.
+ * Items are kept packed in a resizing array, so sampling, dequeueing and each
+ * iterator step take constant (amortized) time.
  * 
  * @author mb
  *
  */
 public class RandomizedQueue<Item> implements Iterable<Item> {
 
+    private static final int MIN_CAPACITY = 8; // initial & minimum array length
+
+    private Item[] items; // items in queue, stored in items[0..size-1]
     private int size = 0; // number of items in queue
-    private Node<Item> tail, head; // first & last references
-    private Node<Item> sample; // sample
+    private int modCount = 0; // number of structural modifications, for fail-fast iteration
 
     /**
      * construct an empty randomized queue
      */
+    @SuppressWarnings("unchecked")
     public RandomizedQueue() {
+        items = (Item[]) new Object[MIN_CAPACITY];
     }
 
     /**
@@ -60,18 +76,15 @@ public class RandomizedQueue<Item> implements Iterable<Item> {
         if (item == null)
             throw new IllegalArgumentException();
         
-        final Node<Item> f = tail;
-        final Node<Item> newNode = new Node<>(f, item, null);
-        tail = newNode;
-        if (f == null)
-            head = newNode;
-        else
-            f.next = newNode;
-        size++;
+        if (size == items.length)
+            resize(items.length << 1);
+        items[size++] = item;
+        modCount++;
     }
 
     /**
-     * remove and return a random item
+     * remove and return a random item; the removed slot is filled with the
+     * last item so the array stays packed
      * 
      * @return
      */
@@ -79,48 +92,61 @@ public class RandomizedQueue<Item> implements Iterable<Item> {
         if (size == 0)
             throw new NoSuchElementException();
 
-        if (sample == null) sample();
-        
-        final Item element = sample.item;
-        final Node<Item> prev = sample.prev,
-                         next = sample.next;
-        
-        if (prev == null) {
-            head = next;
-        } else {
-            prev.next = next;
-            sample.prev = null;
-        }
-        
-        if (next == null) {
-            tail = prev;
-        } else {
-            next.prev = prev;
-            sample.next = null;
-        }
+        final int randomIndex = StdRandom.uniform(size);
+        final Item element = items[randomIndex];
+        items[randomIndex] = items[--size];
+        items[size] = null; // help GC
+        modCount++;
         
-        sample.item = null;
-        sample = null;
-        size--;
+        shrinkIfQuarterFull();
         
         return element;
     }
-    
+
     /**
-     * Returns the (non-null) Node at the specified element index.
+     * remove and return k distinct random items, in random order; takes time
+     * proportional to k (a partial Fisher–Yates shuffle from the end of the array)
+     * 
+     * @param k number of items to remove
+     * @return
+     * @throws IllegalArgumentException if k is negative or greater than size
      */
-    private Node<Item> node(int index) {
-        if (index < (size >> 1)) {
-            Node<Item> x = head;
-            for (int i = 0; i < index; i++)
-                x = x.next;
-            return x;
-        } else {
-            Node<Item> x = tail;
-            for (int i = size - 1; i > index; i--)
-                x = x.prev;
-            return x;
+    public Iterable<Item> dequeue(int k) {
+        if (k < 0 || k > size)
+            throw new IllegalArgumentException("k is not in [0, size] range");
+
+        final List<Item> result = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) {
+            final int randomIndex = StdRandom.uniform(size);
+            result.add(items[randomIndex]);
+            items[randomIndex] = items[--size];
+            items[size] = null; // help GC
         }
+        modCount++;
+        shrinkIfQuarterFull();
+
+        return result;
+    }
+
+    /**
+     * halves the array while it is only one-quarter full
+     */
+    private void shrinkIfQuarterFull() {
+        int capacity = items.length;
+        while (capacity > MIN_CAPACITY && size <= capacity >> 2)
+            capacity >>= 1;
+        if (capacity != items.length)
+            resize(capacity);
+    }
+    
+    /**
+     * moves items to a new array of given length
+     */
+    @SuppressWarnings("unchecked")
+    private void resize(final int capacity) {
+        final Item[] copy = (Item[]) new Object[capacity];
+        System.arraycopy(items, 0, copy, 0, size);
+        items = copy;
     }
 
     /**
@@ -132,10 +158,36 @@ public class RandomizedQueue<Item> implements Iterable<Item> {
         if (size == 0)
             throw new NoSuchElementException();
 
-        final int randomIndex = StdRandom.uniform(size);
-        sample = node(randomIndex);
-        
-        return sample.item;
+        return items[StdRandom.uniform(size)];
+    }
+
+    /**
+     * return k distinct random items (but do not remove them), in random order;
+     * uses Floyd's sampling algorithm, so it takes expected time and extra
+     * memory proportional to k regardless of the size of the queue
+     * 
+     * @param k number of items to sample
+     * @return
+     * @throws IllegalArgumentException if k is negative or greater than size
+     */
+    public Iterable<Item> sample(int k) {
+        if (k < 0 || k > size)
+            throw new IllegalArgumentException("k is not in [0, size] range");
+
+        final Set<Integer> chosen = new HashSet<>(2 * k);
+        final int[] indexes = new int[k];
+        for (int j = size - k, i = 0; j < size; j++, i++) {
+            final int t = StdRandom.uniform(j + 1);
+            indexes[i] = chosen.contains(t) ? j : t;
+            chosen.add(indexes[i]);
+        }
+        StdRandom.shuffle(indexes);
+
+        final List<Item> result = new ArrayList<>(k);
+        for (int index : indexes) {
+            result.add(items[index]);
+        }
+        return result;
     }
 
     /**
@@ -144,56 +196,62 @@ public class RandomizedQueue<Item> implements Iterable<Item> {
     public Iterator<Item> iterator() {
         return new RandomIterator();
     }
-    
+
     /**
-     * Simple representation of node
+     * performs the action for each item in random order, shuffling lazily as
+     * the iterator does but without allocating an iterator
      * 
-     * @author mb
-     *
+     * @param action action to be performed
+     * @throws IllegalArgumentException if the client calls method with a null argument
+     * @throws ConcurrentModificationException if the queue is modified by the action
      */
-    private static class Node<Item> {
-        Item item; // actual data
-        Node<Item> next; // next element
-        Node<Item> prev; // prev element
+    @Override
+    public void forEach(Consumer<? super Item> action) {
+        if (action == null)
+            throw new IllegalArgumentException();
         
-        /**
-         * constructs new node out of 
-         * @param item data
-         * @param next next element reference
-         * @param prev previous element reference
-         */
-        public Node(final Node<Item> prev, final Item item, final Node<Item> next) {
-            super();
-            this.item = item;
-            this.next = next;
-            this.prev = prev;
+        final int expectedModCount = modCount;
+        final int n = size;
+        final SwapMap swapped = new SwapMap();
+        for (int i = 0; i < n && modCount == expectedModCount; i++) {
+            final int r = i + StdRandom.uniform(n - i);
+            final int itemAtR = swapped.get(r);
+            swapped.put(r, swapped.get(i));
+            action.accept(items[itemAtR]);
         }
+        if (modCount != expectedModCount)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * return a sized, fail-fast spliterator over items. It is meant for bulk
+     * (parallel) processing and visits items in storage order, which is not
+     * random; it splits by halving the range of array indexes.
+     */
+    @Override
+    public Spliterator<Item> spliterator() {
+        return new ArraySpliterator(0, size, modCount);
     }
     
     /**
-     * Implementation of deque iterator
+     * Implementation of randomized queue iterator. Shuffles lazily: each call
+     * to next() performs one Fisher–Yates step, recording the displaced
+     * indexes in a {@link SwapMap}, so there is no up-front shuffle and the
+     * cost grows with the items visited, not with the size of the queue.
      * 
      * @author mb
      */
     private class RandomIterator implements Iterator<Item> {
+        private final int n = size; // number of items to visit
+        private final int expectedModCount = modCount; // modifications seen when iterator was created
         private int numVisitedItems = 0; // number of items visited
-        private final int[] itemIndexes; // random indexes of items
-        
-        public RandomIterator() {
-            itemIndexes = new int[size];
-            
-            for (int i = 0; i < size; i++) {
-                itemIndexes[i] = i;
-            }
-            
-            StdRandom.shuffle(itemIndexes);
-        }
+        private SwapMap swapped; // displaced indexes of the shuffle, created on the first step
         
         /**
          * checks if there is next item to iterate over it
          */
         public boolean hasNext() {
-            return numVisitedItems < size;
+            return numVisitedItems < n;
         }
 
         /**
@@ -206,13 +264,147 @@ public class RandomizedQueue<Item> implements Iterable<Item> {
         /**
          * Gets next element 
          * @throws NoSuchElementException if the client calls method in the iterator when there are no more items to return
+         * @throws ConcurrentModificationException if the queue was modified since the iterator was created
          */
         public Item next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
             if (!hasNext()) throw new NoSuchElementException();
+            if (swapped == null) swapped = new SwapMap();
             
-            final Node<Item> elem = node(itemIndexes[numVisitedItems]);
-            numVisitedItems++;
-            return elem.item;
+            final int i = numVisitedItems++;
+            final int r = i + StdRandom.uniform(n - i);
+            final int itemAtR = swapped.get(r);
+            swapped.put(r, swapped.get(i));
+            return items[itemAtR];
+        }
+    }
+
+    /**
+     * Index array of a lazy Fisher–Yates shuffle, holding only the positions
+     * whose item index was swapped away; every other position holds its own
+     * index. Open addressing with linear probing over int keys, kept at most
+     * half full, so a shuffle of k steps takes O(k) time and space.
+     * 
+     * @author mb
+     */
+    private static class SwapMap {
+        private static final int EMPTY = -1; // key of an unused slot; positions are never negative
+
+        private int[] keys; // positions
+        private int[] values; // item index at each position
+        private int count; // number of positions stored
+
+        public SwapMap() {
+            allocate(16);
+        }
+
+        private void allocate(final int capacity) {
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        /**
+         * item index at the position
+         */
+        public int get(final int key) {
+            final int mask = keys.length - 1;
+            for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) return values[slot];
+                if (keys[slot] == EMPTY) return key;
+            }
+        }
+
+        /**
+         * sets the item index at the position
+         */
+        public void put(final int key, final int value) {
+            if (2 * (count + 1) > keys.length) grow();
+
+            final int mask = keys.length - 1;
+            int slot = slot(key);
+            while (keys[slot] != EMPTY && keys[slot] != key) slot = (slot + 1) & mask;
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                count++;
+            }
+            values[slot] = value;
+        }
+
+        private void grow() {
+            final int[] oldKeys = keys, oldValues = values;
+            allocate(2 * oldKeys.length);
+            final int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == EMPTY) continue;
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != EMPTY) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        private int slot(final int key) {
+            final int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & (keys.length - 1);
+        }
+    }
+
+    /**
+     * Implementation of randomized queue spliterator over array indexes [index, fence)
+     * 
+     * @author mb
+     */
+    private class ArraySpliterator implements Spliterator<Item> {
+        private int index; // index of the next item
+        private final int fence; // one past the last index
+        private final int expectedModCount; // modifications seen when spliterator was created
+
+        public ArraySpliterator(final int index, final int fence, final int expectedModCount) {
+            this.index = index;
+            this.fence = fence;
+            this.expectedModCount = expectedModCount;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Item> action) {
+            if (action == null) throw new IllegalArgumentException();
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (index >= fence) return false;
+
+            action.accept(items[index++]);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Item> action) {
+            if (action == null) throw new IllegalArgumentException();
+
+            final Item[] a = items;
+            for (; index < fence && modCount == expectedModCount; index++) {
+                action.accept(a[index]);
+            }
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+        }
+
+        @Override
+        public Spliterator<Item> trySplit() {
+            final int mid = (index + fence) >>> 1;
+            if (mid <= index) return null;
+
+            final Spliterator<Item> prefix = new ArraySpliterator(index, mid, expectedModCount);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.NONNULL;
         }
     }
 }
@@ -0,0 +1,419 @@
+/******************************************************************************
+ * Compilation: javac ResizingArrayDeque.java
+ * Dependencies: java.util.Collection.java java.util.Iterator.java
+ *              java.util.NoSuchElementException.java java.util.Spliterator.java
+ *
+ * ResizingArrayDeque.
+ *
+ ******************************************************************************/
+
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ *
+ * Double-ended queue backed by a growable circular array. Same contract as
+ * {@link Deque}, but items are stored contiguously instead of one node per
+ * item: the array doubles when full and halves when it drops to one-quarter
+ * full, so every operation takes constant amortized time.
+ *
+ * @author mb
+ *
+ */
+public class ResizingArrayDeque<Item> implements Iterable<Item> {
+
+    private static final int MIN_CAPACITY = 8; // initial & minimum array length
+
+    private Item[] items; // circular buffer, length is always a power of two
+    private int head = 0; // index of the first item
+    private int size = 0; // number of items in deque
+    private int modCount = 0; // number of structural modifications, for fail-fast iteration
+
+    /**
+     * construct an empty deque
+     */
+    public ResizingArrayDeque() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * construct an empty deque able to hold {@code capacity} items without resizing
+     *
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if capacity is negative
+     */
+    @SuppressWarnings("unchecked")
+    public ResizingArrayDeque(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity is negative");
+
+        items = (Item[]) new Object[capacityFor(capacity)];
+    }
+
+    /**
+     * is the deque empty?
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * return the number of items on the deque
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * add the item to the front
+     *
+     * @param item item to be added
+     * @throws IllegalArgumentException if the client calls method with a null argument
+     */
+    public void addFirst(Item item) {
+        if (item == null)
+            throw new IllegalArgumentException();
+
+        if (size == items.length)
+            resize(items.length << 1);
+
+        head = (head - 1) & (items.length - 1);
+        items[head] = item;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * add the item to the end
+     *
+     * @param item item to be added
+     * @throws IllegalArgumentException if the client calls method with a null argument
+     */
+    public void addLast(Item item) {
+        if (item == null)
+            throw new IllegalArgumentException();
+
+        if (size == items.length)
+            resize(items.length << 1);
+
+        items[(head + size) & (items.length - 1)] = item;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * remove and return the item from the front
+     *
+     * @throws NoSuchElementException if the client calls method when the deque is empty
+     * @return
+     */
+    public Item removeFirst() {
+        if (size == 0)
+            throw new NoSuchElementException();
+
+        final Item element = items[head];
+        items[head] = null; // help GC
+        head = (head + 1) & (items.length - 1);
+        size--;
+        modCount++;
+        shrinkIfQuarterFull();
+
+        return element;
+    }
+
+    /**
+     * remove and return the item from the end
+     *
+     * @throws NoSuchElementException if the client calls method when the deque is empty
+     * @return
+     */
+    public Item removeLast() {
+        if (size == 0)
+            throw new NoSuchElementException();
+
+        final int tail = (head + size - 1) & (items.length - 1);
+        final Item element = items[tail];
+        items[tail] = null; // help GC
+        size--;
+        modCount++;
+        shrinkIfQuarterFull();
+
+        return element;
+    }
+
+    /**
+     * add all items to the end, in array order
+     *
+     * @param source items to be added
+     * @throws IllegalArgumentException if source or any of its items is null
+     */
+    public void addAll(Item[] source) {
+        if (source == null)
+            throw new IllegalArgumentException();
+        for (Item item : source) {
+            if (item == null)
+                throw new IllegalArgumentException();
+        }
+
+        ensureCapacity(size + source.length);
+
+        final int tail = (head + size) & (items.length - 1);
+        final int firstPart = Math.min(source.length, items.length - tail);
+        System.arraycopy(source, 0, items, tail, firstPart);
+        System.arraycopy(source, firstPart, items, 0, source.length - firstPart);
+        size += source.length;
+        modCount++;
+    }
+
+    /**
+     * add all items to the end, in iteration order. The source is iterated
+     * only once, so items are not checked up front: if an item is null, the
+     * items before it have already been added.
+     *
+     * @param source items to be added
+     * @throws IllegalArgumentException if source or any of its items is null
+     */
+    public void addAll(Iterable<? extends Item> source) {
+        if (source == null)
+            throw new IllegalArgumentException();
+
+        if (source instanceof Collection)
+            ensureCapacity(size + ((Collection<?>) source).size());
+
+        for (Item item : source) {
+            addLast(item);
+        }
+    }
+
+    /**
+     * remove all items from the front and add them to the collection
+     *
+     * @param target collection receiving the items
+     * @return number of items moved
+     * @throws IllegalArgumentException if target is null
+     */
+    public int drainTo(Collection<? super Item> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    /**
+     * remove at most {@code maxItems} items from the front and add them to the
+     * collection. If the collection throws, the items it accepted before are
+     * removed and the rest stay in the deque.
+     *
+     * @param target collection receiving the items
+     * @param maxItems maximum number of items to move
+     * @return number of items moved
+     * @throws IllegalArgumentException if target is null or maxItems is negative
+     */
+    public int drainTo(Collection<? super Item> target, int maxItems) {
+        if (target == null || maxItems < 0)
+            throw new IllegalArgumentException();
+
+        final int n = Math.min(size, maxItems);
+        final int mask = items.length - 1;
+        int moved = 0;
+        try {
+            for (; moved < n; moved++) {
+                final int index = (head + moved) & mask;
+                target.add(items[index]);
+                items[index] = null; // help GC
+            }
+        } finally {
+            // commit the items moved so far, even if target.add threw
+            head = (head + moved) & mask;
+            size -= moved;
+            modCount++;
+            shrinkIfQuarterFull();
+        }
+
+        return n;
+    }
+
+    /**
+     * return an iterator over items in order from front to end
+     */
+    public Iterator<Item> iterator() {
+        return new ArrayIterator();
+    }
+
+    /**
+     * performs the action for each item in order from front to end, without
+     * allocating an iterator
+     *
+     * @param action action to be performed
+     * @throws IllegalArgumentException if the client calls method with a null argument
+     * @throws ConcurrentModificationException if the deque is modified by the action
+     */
+    @Override
+    public void forEach(Consumer<? super Item> action) {
+        if (action == null)
+            throw new IllegalArgumentException();
+
+        final int expectedModCount = modCount;
+        final Item[] a = items;
+        final int mask = a.length - 1;
+        for (int i = 0; i < size && modCount == expectedModCount; i++) {
+            action.accept(a[(head + i) & mask]);
+        }
+        if (modCount != expectedModCount)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * return a sized, fail-fast spliterator over items in order from front to
+     * end; it splits by halving the range of positions
+     */
+    @Override
+    public Spliterator<Item> spliterator() {
+        return new ArraySpliterator(0, size, modCount);
+    }
+
+    /**
+     * makes room for at least {@code capacity} items
+     */
+    private void ensureCapacity(final int capacity) {
+        if (capacity > items.length)
+            resize(capacityFor(capacity));
+    }
+
+    /**
+     * halves the array while it is only one-quarter full
+     */
+    private void shrinkIfQuarterFull() {
+        int capacity = items.length;
+        while (capacity > MIN_CAPACITY && size <= capacity >> 2)
+            capacity >>= 1;
+        if (capacity != items.length)
+            resize(capacity);
+    }
+
+    /**
+     * moves items to a new array of given length, with the first item at index 0
+     */
+    @SuppressWarnings("unchecked")
+    private void resize(final int capacity) {
+        final Item[] copy = (Item[]) new Object[capacity];
+        final int firstPart = Math.min(size, items.length - head);
+        System.arraycopy(items, head, copy, 0, firstPart);
+        System.arraycopy(items, 0, copy, firstPart, size - firstPart);
+        items = copy;
+        head = 0;
+    }
+
+    /**
+     * smallest power of two that is at least {@code capacity} (and at least MIN_CAPACITY)
+     */
+    private static int capacityFor(final int capacity) {
+        if (capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity is too large");
+
+        int length = MIN_CAPACITY;
+        while (length < capacity)
+            length <<= 1;
+        return length;
+    }
+
+    /**
+     * Implementation of deque iterator
+     *
+     * @author mb
+     */
+    private class ArrayIterator implements Iterator<Item> {
+        private int nextIndex; // logical index of the next item
+        private final int expectedModCount = modCount; // modifications seen when iterator was created
+
+        /**
+         * checks if there is next item to iterate over it
+         */
+        public boolean hasNext() {
+            return nextIndex < size;
+        }
+
+        /**
+         * @throws UnsupportedOperationException if the client calls method in the iterator
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Gets next element
+         * @throws NoSuchElementException if the client calls method in the iterator when there are no more items to return
+         * @throws ConcurrentModificationException if the deque was modified since the iterator was created
+         */
+        public Item next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (!hasNext()) throw new NoSuchElementException();
+
+            return items[(head + nextIndex++) & (items.length - 1)];
+        }
+    }
+
+    /**
+     * Implementation of deque spliterator over logical positions [index, fence)
+     *
+     * @author mb
+     */
+    private class ArraySpliterator implements Spliterator<Item> {
+        private int index; // logical index of the next item
+        private final int fence; // one past the last logical index
+        private final int expectedModCount; // modifications seen when spliterator was created
+
+        public ArraySpliterator(final int index, final int fence, final int expectedModCount) {
+            this.index = index;
+            this.fence = fence;
+            this.expectedModCount = expectedModCount;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Item> action) {
+            if (action == null) throw new IllegalArgumentException();
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (index >= fence) return false;
+
+            action.accept(items[(head + index++) & (items.length - 1)]);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Item> action) {
+            if (action == null) throw new IllegalArgumentException();
+
+            final Item[] a = items;
+            final int mask = a.length - 1;
+            for (; index < fence && modCount == expectedModCount; index++) {
+                action.accept(a[(head + index) & mask]);
+            }
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+        }
+
+        @Override
+        public Spliterator<Item> trySplit() {
+            final int mid = (index + fence) >>> 1;
+            if (mid <= index) return null;
+
+            final Spliterator<Item> prefix = new ArraySpliterator(index, mid, expectedModCount);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.NONNULL;
+        }
+    }
+}
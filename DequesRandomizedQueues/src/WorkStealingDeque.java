@@ -0,0 +1,141 @@
+/******************************************************************************
+ * Compilation: javac WorkStealingDeque.java
+ * Dependencies: java.util.concurrent.atomic.AtomicLong.java
+ *              java.util.concurrent.atomic.AtomicReferenceArray.java
+ *
+ * WorkStealingDeque.
+ *
+ ******************************************************************************/
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *
+ * Lock-free work-stealing deque (Chase & Lev, "Dynamic Circular Work-Stealing
+ * Deque", SPAA 2005). A single owner thread adds and removes items at the end
+ * of the deque, like a stack; any number of thief threads concurrently steal
+ * items from the front. The circular array grows when full and is never
+ * shrunk.
+ *
+ * Only the owner thread may call {@link #addLast(Object)} and
+ * {@link #removeLast()}; {@link #steal()} and {@link #size()} may be called by
+ * any thread.
+ *
+ * @author mb
+ *
+ */
+public class WorkStealingDeque<Item> {
+
+    private static final int MIN_CAPACITY = 32; // initial array length
+
+    private final AtomicLong top = new AtomicLong(); // index of the front item, advanced by thieves
+    private volatile long bottom = 0; // index one past the last item, owned by owner
+    private volatile AtomicReferenceArray<Item> items = new AtomicReferenceArray<>(MIN_CAPACITY); // circular buffer, length is a power of two
+
+    /**
+     * construct an empty deque
+     */
+    public WorkStealingDeque() {
+    }
+
+    /**
+     * is the deque empty? The answer may be stale as soon as it is returned.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * estimate of the number of items on the deque
+     *
+     * @return
+     */
+    public int size() {
+        final long n = bottom - top.get();
+        return n < 0 ? 0 : (int) Math.min(n, Integer.MAX_VALUE);
+    }
+
+    /**
+     * add the item to the end; owner thread only
+     *
+     * @param item item to be added
+     * @throws IllegalArgumentException if the client calls method with a null argument
+     */
+    public void addLast(Item item) {
+        if (item == null)
+            throw new IllegalArgumentException();
+
+        final long b = bottom;
+        final long t = top.get();
+        AtomicReferenceArray<Item> a = items;
+        if (b - t >= a.length() - 1) {
+            a = grow(a, b, t);
+        }
+        a.set((int) b & (a.length() - 1), item);
+        bottom = b + 1;
+    }
+
+    /**
+     * remove and return the item from the end; owner thread only
+     *
+     * @return the item, or null if the deque is empty (or the last item was
+     *         stolen concurrently)
+     */
+    public Item removeLast() {
+        final long b = bottom - 1;
+        final AtomicReferenceArray<Item> a = items;
+        bottom = b; // volatile write orders the read of top below
+        final long t = top.get();
+
+        if (t > b) {
+            bottom = b + 1; // deque was already empty
+            return null;
+        }
+
+        final int index = (int) b & (a.length() - 1);
+        Item item = a.get(index);
+        if (t == b) {
+            // last item: race against thieves for it
+            if (!top.compareAndSet(t, t + 1)) item = null;
+            bottom = b + 1;
+        }
+        if (item != null) a.lazySet(index, null); // help GC
+        return item;
+    }
+
+    /**
+     * remove and return the item from the front; safe to call from any thread
+     *
+     * @return the item, or null if the deque is empty or another thread won
+     *         the race for the front item
+     */
+    public Item steal() {
+        final long t = top.get();
+        final long b = bottom;
+        if (t >= b) return null;
+
+        final AtomicReferenceArray<Item> a = items;
+        final Item item = a.get((int) t & (a.length() - 1));
+        if (item == null || !top.compareAndSet(t, t + 1)) return null;
+        return item;
+    }
+
+    /**
+     * copies live items [t, b) into an array twice as large
+     */
+    private AtomicReferenceArray<Item> grow(final AtomicReferenceArray<Item> a, final long b, final long t) {
+        final int length = a.length() << 1;
+        if (length <= 0)
+            throw new IllegalStateException("deque is too large");
+
+        final AtomicReferenceArray<Item> copy = new AtomicReferenceArray<>(length);
+        for (long i = t; i < b; i++) {
+            copy.lazySet((int) i & (length - 1), a.get((int) i & (a.length() - 1)));
+        }
+        items = copy;
+        return copy;
+    }
+}
@@ -0,0 +1,127 @@
+/******************************************************************************
+ * Compilation: javac WorkStealingDequeBenchmark.java
+ * Execution: java WorkStealingDequeBenchmark n maxThreads
+ * Dependencies: WorkStealingDeque.java
+ *              java.util.concurrent.ConcurrentLinkedDeque.java
+ *
+ * WorkStealingDequeBenchmark.
+ *
+ ******************************************************************************/
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import edu.princeton.cs.algs4.StdOut;
+
+/**
+ *
+ * Stress test and throughput benchmark for {@link WorkStealingDeque}. One
+ * owner thread pushes n items and pops every other one, while 0 to
+ * maxThreads - 1 thieves steal from the front. Every run checks that each
+ * item was consumed exactly once, and is compared with the same workload on
+ * a {@link ConcurrentLinkedDeque}.
+ *
+ * @author mb
+ *
+ */
+public class WorkStealingDequeBenchmark {
+
+    /**
+     * Operations of a concurrent deque as used by the workload
+     */
+    private interface Ops {
+        void push(Integer item);
+        Integer pop();
+        Integer steal();
+    }
+
+    private static Ops workStealing() {
+        final WorkStealingDeque<Integer> deque = new WorkStealingDeque<>();
+        return new Ops() {
+            public void push(Integer item) { deque.addLast(item); }
+            public Integer pop() { return deque.removeLast(); }
+            public Integer steal() { return deque.steal(); }
+        };
+    }
+
+    private static Ops concurrentLinked() {
+        final ConcurrentLinkedDeque<Integer> deque = new ConcurrentLinkedDeque<>();
+        return new Ops() {
+            public void push(Integer item) { deque.addLast(item); }
+            public Integer pop() { return deque.pollLast(); }
+            public Integer steal() { return deque.pollFirst(); }
+        };
+    }
+
+    /**
+     * runs the workload once and verifies that no item was lost or duplicated
+     *
+     * @return elapsed time in seconds
+     */
+    private static double run(final Ops deque, final Integer[] values, final int threads) throws InterruptedException {
+        final AtomicIntegerArray seen = new AtomicIntegerArray(values.length);
+        final AtomicBoolean done = new AtomicBoolean();
+
+        final Thread[] thieves = new Thread[threads - 1];
+        for (int i = 0; i < thieves.length; i++) {
+            thieves[i] = new Thread(() -> {
+                while (true) {
+                    final Integer item = deque.steal();
+                    if (item != null) {
+                        seen.incrementAndGet(item);
+                    } else if (done.get()) {
+                        return;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            });
+        }
+
+        final long start = System.nanoTime();
+        for (Thread thief : thieves) thief.start();
+
+        for (int i = 0; i < values.length; i++) {
+            deque.push(values[i]);
+            if ((i & 1) == 1) {
+                final Integer item = deque.pop();
+                if (item != null) seen.incrementAndGet(item);
+            }
+        }
+        Integer item;
+        while ((item = deque.pop()) != null) {
+            seen.incrementAndGet(item);
+        }
+        done.set(true);
+        for (Thread thief : thieves) thief.join();
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+
+        for (int i = 0; i < values.length; i++) {
+            if (seen.get(i) != 1)
+                throw new IllegalStateException("item " + i + " consumed " + seen.get(i) + " times");
+        }
+        return elapsed;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        final Integer[] values = new Integer[n];
+        for (int i = 0; i < n; i++) values[i] = i;
+
+        // warm up both implementations
+        for (int i = 0; i < 3; i++) {
+            run(workStealing(), values, maxThreads);
+            run(concurrentLinked(), values, maxThreads);
+        }
+
+        StdOut.printf("%8s %22s %22s\n", "threads", "WorkStealingDeque", "ConcurrentLinkedDeque");
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            final double ws = run(workStealing(), values, threads);
+            final double cl = run(concurrentLinked(), values, threads);
+            StdOut.printf("%8d %16.1f Mop/s %16.1f Mop/s\n", threads, n / ws / 1e6, n / cl / 1e6);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ *
+ * Thread-safe 2d-tree for read-mostly workloads. Queries never lock: they
+ * read the root and the child links through volatile fields and see every
+ * insert that completed before they reached the affected node. Inserts attach
+ * new leaves with a compare-and-set on the parent's child link, so concurrent
+ * inserts on different paths do not block each other.
+ *
+ * Rebalancing builds a balanced copy of the tree off to the side and
+ * publishes it with a single write of the root, so readers keep using the old
+ * tree until then. Inserts wait while a rebalance is running, so none of them
+ * is lost. Inserts record the deepest depth they reach, so deciding whether a
+ * rebalance is needed takes constant time and does not block them.
+ *
+ * @author mb
+ *
+ */
+public class ConcurrentKdTree {
+
+    private static final AtomicReferenceFieldUpdater<Node, Node> LEFT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "left");
+    private static final AtomicReferenceFieldUpdater<Node, Node> RIGHT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "right");
+    private static final AtomicReferenceFieldUpdater<ConcurrentKdTree, Node> ROOT =
+            AtomicReferenceFieldUpdater.newUpdater(ConcurrentKdTree.class, Node.class, "root");
+
+    private static final double REBALANCE_FACTOR = 3.0; // rebalance when height exceeds this many times log2(n)
+
+    private volatile Node root;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger(); // depth of the deepest node, i.e. the height
+    private volatile RuntimeException lastRebalanceFailure; // thrown by the latest failed scheduled rebalance
+
+    // inserts share the read lock among themselves; a rebalance takes the write lock
+    private final ReentrantReadWriteLock writers = new ReentrantReadWriteLock();
+
+    /**
+     * construct an empty set of points
+     */
+    public ConcurrentKdTree() {
+    }
+
+    /**
+     * is the set empty?
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /**
+     * number of points in the set
+     *
+     * @return
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * add the point to the set (if it is not already in the set)
+     *
+     * @param p
+     * @throws IllegalArgumentException if p is null
+     */
+    public void insert(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+
+        writers.readLock().lock();
+        try {
+            insertLeaf(p);
+        } finally {
+            writers.readLock().unlock();
+        }
+    }
+
+    private void insertLeaf(final Point2D p) {
+        while (true) {
+            Node node = root;
+            if (node == null) {
+                if (ROOT.compareAndSet(this, null, new Node(p, true))) {
+                    size.incrementAndGet();
+                    maxDepth.accumulateAndGet(1, Math::max);
+                    return;
+                }
+                continue;
+            }
+
+            int depth = 1; // depth of node
+            while (true) {
+                if (node.point.equals(p))
+                    return;
+
+                final boolean goLeft = node.isVertical ? p.x() < node.point.x() : p.y() < node.point.y();
+                final Node child = goLeft ? node.left : node.right;
+                if (child != null) {
+                    node = child;
+                    depth++;
+                    continue;
+                }
+
+                final Node attached = new Node(p, !node.isVertical);
+                if ((goLeft ? LEFT : RIGHT).compareAndSet(node, null, attached)) {
+                    size.incrementAndGet();
+                    maxDepth.accumulateAndGet(depth + 1, Math::max);
+                    return;
+                }
+                // another insert won the link; continue from the same node
+            }
+        }
+    }
+
+    /**
+     * does the set contain point p?
+     *
+     * @param p
+     * @return
+     * @throws IllegalArgumentException if p is null
+     */
+    public boolean contains(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+
+        Node node = root;
+        while (node != null) {
+            if (node.point.equals(p))
+                return true;
+            node = (node.isVertical ? p.x() < node.point.x() : p.y() < node.point.y()) ? node.left : node.right;
+        }
+        return false;
+    }
+
+    /**
+     * all points that are inside the rectangle (or on the boundary)
+     *
+     * @param rect
+     * @return
+     * @throws IllegalArgumentException if rect is null
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null)
+            throw new IllegalArgumentException();
+
+        final List<Point2D> result = new ArrayList<>();
+        range(root, rect, result);
+        return result;
+    }
+
+    private void range(final Node node, final RectHV rect, final List<Point2D> result) {
+        if (node == null)
+            return;
+
+        if (rect.contains(node.point))
+            result.add(node.point);
+
+        final double split = node.isVertical ? node.point.x() : node.point.y();
+        if ((node.isVertical ? rect.xmin() : rect.ymin()) < split)
+            range(node.left, rect, result);
+        if ((node.isVertical ? rect.xmax() : rect.ymax()) >= split)
+            range(node.right, rect, result);
+    }
+
+    /**
+     * a nearest neighbor in the set to point p; null if the set is empty
+     *
+     * @param p
+     * @return
+     * @throws IllegalArgumentException if p is null
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+
+        final Node start = root;
+        if (start == null)
+            return null;
+
+        return nearest(start, p, start.point);
+    }
+
+    private Point2D nearest(final Node node, final Point2D p, Point2D champion) {
+        if (node == null)
+            return champion;
+
+        if (p.distanceSquaredTo(node.point) < p.distanceSquaredTo(champion))
+            champion = node.point;
+
+        final double offset = node.isVertical ? p.x() - node.point.x() : p.y() - node.point.y();
+        final Node near = offset < 0 ? node.left : node.right, far = offset < 0 ? node.right : node.left;
+
+        champion = nearest(near, p, champion);
+        if (offset * offset <= p.distanceSquaredTo(champion))
+            champion = nearest(far, p, champion);
+        return champion;
+    }
+
+    /**
+     * height of the tree (0 if empty); may lag behind inserts that are still
+     * in progress
+     *
+     * @return
+     */
+    public int height() {
+        return maxDepth.get();
+    }
+
+    /**
+     * rebuilds the tree balanced if its height exceeds a few times the
+     * optimum; readers are not blocked, inserts wait until the new tree is
+     * published, and nothing is locked if the tree is balanced enough
+     *
+     * @return true if the tree was rebuilt
+     */
+    public boolean rebalance() {
+        if (!needsRebalance())
+            return false;
+
+        writers.writeLock().lock();
+        try {
+            if (!needsRebalance())
+                return false;
+
+            final Point2D[] points = collect(root, size.get());
+            final int[] height = new int[1];
+            root = build(points, 0, points.length, true, 1, height);
+            maxDepth.set(height[0]);
+            return true;
+        } finally {
+            writers.writeLock().unlock();
+        }
+    }
+
+    private boolean needsRebalance() {
+        final int n = size.get();
+        return n >= 2 && maxDepth.get() > REBALANCE_FACTOR * (32 - Integer.numberOfLeadingZeros(n));
+    }
+
+    /**
+     * runs {@link #rebalance()} periodically on the given executor. A failed
+     * rebalance does not cancel the schedule; its exception is kept, see
+     * {@link #lastRebalanceFailure()}.
+     *
+     * @param executor executor running the rebalance task
+     * @param period time between checks
+     * @param unit unit of period
+     * @return handle to cancel the periodic rebalance
+     * @throws IllegalArgumentException if executor or unit is null, or period is not positive
+     */
+    public ScheduledFuture<?> scheduleRebalance(ScheduledExecutorService executor, long period, TimeUnit unit) {
+        if (executor == null || unit == null || period <= 0)
+            throw new IllegalArgumentException();
+
+        return executor.scheduleWithFixedDelay(() -> {
+            try {
+                rebalance();
+            } catch (RuntimeException e) {
+                lastRebalanceFailure = e;
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * exception thrown by the latest scheduled rebalance that failed; null if none has
+     *
+     * @return
+     */
+    public RuntimeException lastRebalanceFailure() {
+        return lastRebalanceFailure;
+    }
+
+    /**
+     * points of the subtree at node, in no particular order, collected with
+     * an explicit stack
+     */
+    private static Point2D[] collect(final Node node, final int expected) {
+        final List<Point2D> points = new ArrayList<>(expected);
+        final Deque<Node> stack = new ArrayDeque<>();
+        if (node != null) stack.push(node);
+        while (!stack.isEmpty()) {
+            final Node n = stack.pop();
+            points.add(n.point);
+            if (n.right != null) stack.push(n.right);
+            if (n.left != null) stack.push(n.left);
+        }
+        return points.toArray(new Point2D[points.size()]);
+    }
+
+    /**
+     * builds a balanced subtree of points[lo, hi) with the same median rule
+     * as {@link KdTree}; its root is at the given depth, and height[0] is
+     * raised to the depth of its deepest node. Points that tie on the
+     * splitting coordinate all go right, so the height can exceed log2(n) + 1
+     * and is tracked here rather than derived from the size.
+     */
+    private static Node build(final Point2D[] points, final int lo, final int hi, final boolean isVertical,
+            final int depth, final int[] height) {
+        if (lo >= hi)
+            return null;
+
+        height[0] = Math.max(height[0], depth);
+        final int median = KdTree.selectMedian(points, lo, hi, isVertical);
+        final Node node = new Node(points[median], isVertical);
+        node.left = build(points, lo, median, !isVertical, depth + 1, height);
+        node.right = build(points, median + 1, hi, !isVertical, depth + 1, height);
+        return node;
+    }
+
+    /**
+     * Tree node; child links are written once, from null, by compare-and-set
+     * (or before the node is published by a rebalance)
+     *
+     * @author mb
+     */
+    private static class Node {
+        final Point2D point;
+        final boolean isVertical;
+        volatile Node left;
+        volatile Node right;
+
+        Node(final Point2D point, final boolean isVertical) {
+            this.point = point;
+            this.isVertical = isVertical;
+        }
+    }
+
+    /**
+     * inserts n points in sorted order from one thread while others run
+     * nearest-neighbor queries, rebalancing in the background
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        final int readers = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        final ConcurrentKdTree tree = new ConcurrentKdTree();
+        final ScheduledExecutorService rebalancer = Executors.newSingleThreadScheduledExecutor();
+        tree.scheduleRebalance(rebalancer, 10, TimeUnit.MILLISECONDS);
+
+        final AtomicInteger queries = new AtomicInteger();
+        final Thread[] threads = new Thread[readers];
+        for (int t = 0; t < readers; t++) {
+            threads[t] = new Thread(() -> {
+                while (tree.size() < n) {
+                    tree.nearest(new Point2D(StdRandom.uniform(), StdRandom.uniform()));
+                    queries.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+
+        // sorted input degenerates the tree unless it is rebalanced
+        final Stopwatch stopwatch = new Stopwatch();
+        for (int i = 0; i < n; i++) {
+            tree.insert(new Point2D((double) i / n, StdRandom.uniform()));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        rebalancer.shutdown();
+        tree.rebalance();
+
+        StdOut.printf("inserted %d points in %.3f s while answering %d queries\n",
+                tree.size(), stopwatch.elapsedTime(), queries.get());
+        StdOut.printf("height %d\n", tree.height());
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+
+/**
+ *
+ * Queries shared by the 2d-trees stored as a complete binary tree in
+ * breadth-first order ({@link StaticKdTree} and {@link MappedKdTree}): node i
+ * has children 2i + 1 and 2i + 2, and the splitting axis is implied by its
+ * depth (x on even levels, y on odd ones). Subclasses only say where the
+ * coordinates of node i live.
+ *
+ * Points equal to a splitting coordinate may sit in either subtree, which the
+ * queries take into account.
+ *
+ * @author mb
+ *
+ */
+abstract class ImplicitKdTree {
+
+    /**
+     * number of points in the set
+     *
+     * @return
+     */
+    public abstract int size();
+
+    /**
+     * x-coordinate of the point at node index i
+     *
+     * @param i node index in [0, size)
+     * @return
+     */
+    public abstract double x(int i);
+
+    /**
+     * y-coordinate of the point at node index i
+     *
+     * @param i node index in [0, size)
+     * @return
+     */
+    public abstract double y(int i);
+
+    /**
+     * is the set empty?
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * does the set contain point p?
+     *
+     * @param p
+     * @return
+     * @throws IllegalArgumentException if p is null
+     */
+    public boolean contains(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+
+        return contains(0, size(), true, p.x(), p.y());
+    }
+
+    private boolean contains(final int node, final int size, final boolean isVertical, final double x, final double y) {
+        if (node >= size)
+            return false;
+
+        final double nx = x(node), ny = y(node);
+        if (nx == x && ny == y)
+            return true;
+
+        final double c = isVertical ? x : y, split = isVertical ? nx : ny;
+        if (c < split) return contains(2 * node + 1, size, !isVertical, x, y);
+        if (c > split) return contains(2 * node + 2, size, !isVertical, x, y);
+        return contains(2 * node + 1, size, !isVertical, x, y) || contains(2 * node + 2, size, !isVertical, x, y);
+    }
+
+    /**
+     * all points that are inside the rectangle (or on the boundary)
+     *
+     * @param rect
+     * @return
+     * @throws IllegalArgumentException if rect is null
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null)
+            throw new IllegalArgumentException();
+
+        final List<Point2D> result = new ArrayList<>();
+        range(rect.xmin(), rect.ymin(), rect.xmax(), rect.ymax(), i -> result.add(new Point2D(x(i), y(i))));
+        return result;
+    }
+
+    /**
+     * passes the node index of every point inside the rectangle [xmin, xmax] x
+     * [ymin, ymax] (or on its boundary) to the action, without allocating
+     *
+     * @param xmin
+     * @param ymin
+     * @param xmax
+     * @param ymax
+     * @param action receives node indexes, see {@link #x(int)} and {@link #y(int)}
+     * @throws IllegalArgumentException if action is null
+     */
+    public void range(double xmin, double ymin, double xmax, double ymax, IntConsumer action) {
+        if (action == null)
+            throw new IllegalArgumentException();
+
+        range(0, size(), true, xmin, ymin, xmax, ymax, action);
+    }
+
+    private void range(final int node, final int size, final boolean isVertical, final double xmin, final double ymin,
+            final double xmax, final double ymax, final IntConsumer action) {
+        if (node >= size)
+            return;
+
+        final double x = x(node), y = y(node);
+        if (x >= xmin && x <= xmax && y >= ymin && y <= ymax)
+            action.accept(node);
+
+        final double split = isVertical ? x : y;
+        if ((isVertical ? xmin : ymin) <= split)
+            range(2 * node + 1, size, !isVertical, xmin, ymin, xmax, ymax, action);
+        if ((isVertical ? xmax : ymax) >= split)
+            range(2 * node + 2, size, !isVertical, xmin, ymin, xmax, ymax, action);
+    }
+
+    /**
+     * a nearest neighbor in the set to point p; null if the set is empty
+     *
+     * @param p
+     * @return
+     * @throws IllegalArgumentException if p is null
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+
+        final int i = nearestIndex(p.x(), p.y());
+        return i < 0 ? null : new Point2D(x(i), y(i));
+    }
+
+    /**
+     * node index of a nearest neighbor to (x, y), without allocating; -1 if
+     * the set is empty
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    public int nearestIndex(double x, double y) {
+        final int size = size();
+        if (size == 0)
+            return -1;
+
+        return nearest(0, size, true, x, y, 0.0, 0.0, 0.0, 0);
+    }
+
+    /**
+     * Searches the subtree at {@code node}, whose cell is at squared distance
+     * {@code cellDistance} from the query; {@code dx} and {@code dy} are the
+     * per-axis offsets from the query to that cell, so the distance to a
+     * child cell is updated incrementally.
+     *
+     * @return index of the best point found so far
+     */
+    private int nearest(final int node, final int size, final boolean isVertical, final double x, final double y,
+            final double dx, final double dy, final double cellDistance, int best) {
+        if (node >= size)
+            return best;
+
+        final double nx = x(node), ny = y(node);
+        final double bx = x(best) - x, by = y(best) - y;
+        final double px = nx - x, py = ny - y;
+        if (px * px + py * py < bx * bx + by * by)
+            best = node;
+
+        final double offset = isVertical ? x - nx : y - ny;
+        final int near = offset < 0 ? 2 * node + 1 : 2 * node + 2, far = offset < 0 ? 2 * node + 2 : 2 * node + 1;
+
+        best = nearest(near, size, !isVertical, x, y, dx, dy, cellDistance, best);
+
+        final double old = isVertical ? dx : dy;
+        final double farDistance = cellDistance - old * old + offset * offset;
+        final double cx = x(best) - x, cy = y(best) - y;
+        if (farDistance <= cx * cx + cy * cy) {
+            best = isVertical
+                    ? nearest(far, size, false, x, y, offset, dy, farDistance, best)
+                    : nearest(far, size, true, x, y, dx, offset, farDistance, best);
+        }
+        return best;
+    }
+}
@@ -1,5 +1,9 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 import edu.princeton.cs.algs4.Point2D;
 import edu.princeton.cs.algs4.RectHV;
@@ -17,8 +21,19 @@ import edu.princeton.cs.algs4.StdDraw;
  */
 public class KdTree {
 
+    private static final int PARALLEL_BUILD_CUTOFF = 1 << 13; // subtrees smaller than this are built sequentially
+    private static final double ALPHA = 0.7; // weight balance: no child may hold more than this share of its parent
+
     private KdNode root;
     private int size;
+    private int maxSize; // largest size since the last full rebuild
+    private boolean rebuildPending; // an insert went too deep; rebuild its first unbalanced ancestor
+
+    // bounding box of the points, the region of the root; deletes do not shrink it
+    private double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+    private double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+
+    private PointHash hashIndex; // exact-match index of all points; null unless enabled
 
     /**
      * construct an empty set of points
@@ -28,6 +43,145 @@ public class KdTree {
         size = 0;
     }
 
+    /**
+     * construct a perfectly balanced set of the given points; each subtree is
+     * split at the median of its points along its axis (found with
+     * quickselect), and large subtrees are built in parallel
+     * 
+     * @param points points of the set; duplicates are ignored
+     * @throws IllegalArgumentException if points or any of them is null
+     */
+    public KdTree(Point2D[] points) {
+        if (points == null)
+            throw new IllegalArgumentException();
+
+        final Point2D[] copy = points.clone();
+        for (Point2D point : copy) {
+            if (point == null)
+                throw new IllegalArgumentException();
+        }
+
+        // drop duplicates, so every point ends up in exactly one node
+        Arrays.sort(copy);
+        int n = 0;
+        for (int i = 0; i < copy.length; i++) {
+            if (n == 0 || !copy[i].equals(copy[n - 1])) copy[n++] = copy[i];
+        }
+
+        for (int i = 0; i < n; i++) {
+            expandBounds(copy[i]);
+        }
+        size = maxSize = n;
+        root = n < PARALLEL_BUILD_CUTOFF
+                ? build(copy, 0, n, true)
+                : ForkJoinPool.commonPool().invoke(new BuildTask(copy, 0, n, true));
+    }
+
+    /**
+     * construct a perfectly balanced set of the given points
+     * 
+     * @param points points of the set; duplicates are ignored
+     * @throws IllegalArgumentException if points or any of them is null
+     * @see #KdTree(Point2D[])
+     */
+    public KdTree(Iterable<Point2D> points) {
+        this(toArray(points));
+    }
+
+    private static Point2D[] toArray(final Iterable<Point2D> points) {
+        if (points == null)
+            throw new IllegalArgumentException();
+
+        final List<Point2D> list = new ArrayList<>();
+        for (Point2D point : points) {
+            list.add(point);
+        }
+        return list.toArray(new Point2D[list.size()]);
+    }
+
+    /**
+     * builds a balanced subtree of points[lo, hi)
+     */
+    private static KdNode build(final Point2D[] points, final int lo, final int hi, final boolean isVertical) {
+        if (lo >= hi)
+            return null;
+
+        final int median = selectMedian(points, lo, hi, isVertical);
+        return new KdNode(points[median], isVertical,
+                build(points, lo, median, !isVertical),
+                build(points, median + 1, hi, !isVertical));
+    }
+
+    /**
+     * Rearranges points[lo, hi) around their median along the given axis
+     * (3-way quickselect) and returns the index of the splitting point. All
+     * points before that index have a strictly smaller coordinate and all
+     * points after it a greater or equal one, matching the left/right rule
+     * used by insert and contains.
+     */
+    static int selectMedian(final Point2D[] points, int lo, int hi, final boolean isVertical) {
+        final int k = lo + (hi - lo) / 2;
+        hi--;
+        while (true) {
+            // middle element as pivot, so sorted input needs no shuffling
+            swap(points, lo, lo + (hi - lo) / 2);
+            final double pivot = coordinate(points[lo], isVertical);
+            int lt = lo, gt = hi, i = lo + 1;
+            while (i <= gt) {
+                final double c = coordinate(points[i], isVertical);
+                if (c < pivot) swap(points, lt++, i++);
+                else if (c > pivot) swap(points, i, gt--);
+                else i++;
+            }
+
+            if (k < lt) hi = lt - 1;
+            else if (k > gt) lo = gt + 1;
+            else return lt;
+        }
+    }
+
+    private static double coordinate(final Point2D point, final boolean isVertical) {
+        return isVertical ? point.x() : point.y();
+    }
+
+    private static void swap(final Point2D[] points, final int i, final int j) {
+        final Point2D tmp = points[i];
+        points[i] = points[j];
+        points[j] = tmp;
+    }
+
+    /**
+     * Builds a balanced subtree, forking the left half while above the cutoff
+     * 
+     * @author mb
+     */
+    private static class BuildTask extends RecursiveTask<KdNode> {
+        private static final long serialVersionUID = 1L;
+
+        private final Point2D[] points;
+        private final int lo, hi; // range of points to build from
+        private final boolean isVertical; // axis of the subtree root
+
+        public BuildTask(final Point2D[] points, final int lo, final int hi, final boolean isVertical) {
+            this.points = points;
+            this.lo = lo;
+            this.hi = hi;
+            this.isVertical = isVertical;
+        }
+
+        @Override
+        protected KdNode compute() {
+            if (hi - lo < PARALLEL_BUILD_CUTOFF)
+                return build(points, lo, hi, isVertical);
+
+            final int median = selectMedian(points, lo, hi, isVertical);
+            final BuildTask left = new BuildTask(points, lo, median, !isVertical);
+            left.fork();
+            final KdNode right = new BuildTask(points, median + 1, hi, !isVertical).compute();
+            return new KdNode(points[median], isVertical, left.join(), right);
+        }
+    }
+
     /**
      * is the set empty?
      * 
@@ -47,7 +201,9 @@ public class KdTree {
     }
 
     /**
-     * add the point to the set (if it is not already in the set)
+     * add the point to the set (if it is not already in the set); if the new
+     * node ends up deeper than an α-weight-balanced tree allows, the subtree of
+     * its first unbalanced ancestor is rebuilt (scapegoat rebalancing)
      * 
      * @param p
      */
@@ -55,12 +211,26 @@ public class KdTree {
         if (p == null)
             throw new IllegalArgumentException();
 
-        root = insert(root, p, true);
+        if (hashIndex != null && !hashIndex.add(p.x(), p.y()))
+            return;
+
+        root = insert(root, p, true, 0);
+        rebuildPending = false;
+        maxSize = Math.max(maxSize, size);
+        expandBounds(p);
+    }
+
+    private void expandBounds(final Point2D p) {
+        xmin = Math.min(xmin, p.x());
+        ymin = Math.min(ymin, p.y());
+        xmax = Math.max(xmax, p.x());
+        ymax = Math.max(ymax, p.y());
     }
 
-    private KdNode insert(final KdNode parent, final Point2D point, final boolean isVertical) {
+    private KdNode insert(final KdNode parent, final Point2D point, final boolean isVertical, final int depth) {
         if (parent == null) {
             size++;
+            rebuildPending = depth > maxHeight(size);
             return new KdNode(point, isVertical);
         }
 
@@ -68,15 +238,170 @@ public class KdTree {
             return parent;
         }
 
+        final int oldSize = size;
         if (parent.isVertical && point.x() < parent.x() || !parent.isVertical && point.y() < parent.y()) {
-            parent.left = insert(parent.left, point, !parent.isVertical);
+            parent.left = insert(parent.left, point, !parent.isVertical, depth + 1);
         } else {
-            parent.right = insert(parent.right, point, !parent.isVertical);
+            parent.right = insert(parent.right, point, !parent.isVertical, depth + 1);
         }
+        if (size == oldSize)
+            return parent;
 
+        parent.count++;
+        if (rebuildPending && !isWeightBalanced(parent)) {
+            rebuildPending = false;
+            return rebuild(parent);
+        }
         return parent;
     }
 
+    /**
+     * remove the point from the set (if it is in the set); the node is
+     * replaced by the point with the minimum coordinate along its axis from
+     * the right subtree, or, if there is none, from the left subtree, which
+     * then becomes the right one. Once the set has shrunk below α times its
+     * largest size, the whole tree is rebuilt.
+     * 
+     * @param p
+     * @return true if the point was removed
+     */
+    public boolean delete(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+
+        if (hashIndex != null && !hashIndex.remove(p.x(), p.y()))
+            return false;
+
+        final int oldSize = size;
+        root = delete(root, p);
+        if (size == oldSize)
+            return false;
+
+        if (size < ALPHA * maxSize) {
+            xmin = ymin = Double.POSITIVE_INFINITY;
+            xmax = ymax = Double.NEGATIVE_INFINITY;
+            if (root != null) {
+                root = rebuild(root);
+                range(root, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                        Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, this::expandBounds);
+            }
+            maxSize = size;
+        }
+        return true;
+    }
+
+    private KdNode delete(final KdNode node, final Point2D point) {
+        if (node == null)
+            return null;
+
+        if (node.point.equals(point)) {
+            if (node.right != null) {
+                node.point = min(node.right, node.isVertical);
+                node.right = delete(node.right, node.point);
+            } else if (node.left != null) {
+                node.point = min(node.left, node.isVertical);
+                node.right = delete(node.left, node.point);
+                node.left = null;
+            } else {
+                size--;
+                return null;
+            }
+            node.count--;
+            return node;
+        }
+
+        final int oldSize = size;
+        if (isLeftOrTop(node, point)) {
+            node.left = delete(node.left, point);
+        } else {
+            node.right = delete(node.right, point);
+        }
+        if (size != oldSize)
+            node.count--;
+        return node;
+    }
+
+    /**
+     * a point with the minimum x- (if isVertical) or y-coordinate in the subtree
+     */
+    private static Point2D min(final KdNode node, final boolean isVertical) {
+        Point2D min = node.point;
+        if (node.left != null) {
+            final Point2D left = min(node.left, isVertical);
+            if (coordinate(left, isVertical) < coordinate(min, isVertical)) min = left;
+        }
+        // the right subtree cannot hold anything smaller than a node splitting on the same axis
+        if (node.right != null && node.isVertical != isVertical) {
+            final Point2D right = min(node.right, isVertical);
+            if (coordinate(right, isVertical) < coordinate(min, isVertical)) min = right;
+        }
+        return min;
+    }
+
+    /**
+     * deepest a node may be in an α-weight-balanced tree of n nodes
+     */
+    private static int maxHeight(final int n) {
+        return (int) Math.floor(Math.log(n) / Math.log(1.0 / ALPHA));
+    }
+
+    private static boolean isWeightBalanced(final KdNode node) {
+        return count(node.left) <= ALPHA * node.count && count(node.right) <= ALPHA * node.count;
+    }
+
+    private static int count(final KdNode node) {
+        return node == null ? 0 : node.count;
+    }
+
+    /**
+     * balanced copy of the subtree, keeping the axis of its root
+     */
+    private static KdNode rebuild(final KdNode node) {
+        final Point2D[] points = new Point2D[node.count];
+        collect(node, points, 0);
+        return build(points, 0, points.length, node.isVertical);
+    }
+
+    /**
+     * stores the points of the subtree in points, starting at index i
+     * 
+     * @return index after the last point stored
+     */
+    private static int collect(final KdNode node, final Point2D[] points, int i) {
+        if (node == null)
+            return i;
+
+        i = collect(node.left, points, i);
+        points[i++] = node.point;
+        return collect(node.right, points, i);
+    }
+
+    /**
+     * number of nodes on the longest path from the root (0 if the set is empty)
+     * 
+     * @return
+     */
+    public int height() {
+        return height(root);
+    }
+
+    private static int height(final KdNode node) {
+        return node == null ? 0 : 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    /**
+     * ratio of the height to that of a perfectly balanced tree of the same
+     * size, ceil(lg(n + 1)); 1.0 is optimal (and is returned for an empty set)
+     * 
+     * @return
+     */
+    public double imbalance() {
+        if (size == 0)
+            return 1.0;
+
+        return (double) height() / (32 - Integer.numberOfLeadingZeros(size));
+    }
+
     /**
      * does the set contain point p?
      * 
@@ -87,9 +412,42 @@ public class KdTree {
         if (p == null)
             throw new IllegalArgumentException();
 
+        if (hashIndex != null)
+            return hashIndex.contains(p.x(), p.y());
+
         return contains(root, p);
     }
 
+    /**
+     * keeps an open-addressing hash table of all points next to the tree from
+     * now on, so contains takes constant expected time and insert skips the
+     * tree descent for points already in the set
+     */
+    public void enableHashIndex() {
+        if (hashIndex != null)
+            return;
+
+        hashIndex = new PointHash(size);
+        range(root, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.POSITIVE_INFINITY, point -> hashIndex.add(point.x(), point.y()));
+    }
+
+    /**
+     * drops the hash index, if any
+     */
+    public void disableHashIndex() {
+        hashIndex = null;
+    }
+
+    /**
+     * bytes held by the hash index tables (0 if the index is disabled)
+     * 
+     * @return
+     */
+    public long hashIndexBytes() {
+        return hashIndex == null ? 0 : hashIndex.bytes();
+    }
+
     private boolean contains(final KdNode node, final Point2D point) {
         if (node == null) {
             return false;
@@ -107,38 +465,45 @@ public class KdTree {
     }
 
     /**
-     * draw all points to standard draw
+     * draw all points to standard draw, scaled to their bounding box (or to
+     * the unit square if the set is empty)
      */
     public void draw() {
-        final Point2D min = new Point2D(0.0, 0.0), max = new Point2D(1.0, 1.0);
+        if (root == null) {
+            StdDraw.setScale(0.0, 1.0);
+            return;
+        }
 
-        StdDraw.setScale(min.x(), max.y());
+        final double extent = Math.max(xmax - xmin, ymax - ymin);
+        final double margin = extent > 0 ? 0.05 * extent : 0.5;
+        StdDraw.setXscale(xmin - margin, xmax + margin);
+        StdDraw.setYscale(ymin - margin, ymax + margin);
 
-        draw(root, min, max);
+        draw(root, xmin, ymin, xmax, ymax);
     }
 
-    private void draw(final KdNode node, final Point2D min, final Point2D max) {
+    private void draw(final KdNode node, final double xmin, final double ymin, final double xmax, final double ymax) {
         if (node == null)
             return;
 
-        final Point2D point = node.point;
+        final double x = node.x(), y = node.y();
 
         StdDraw.setPenColor();
-        StdDraw.filledCircle(point.x(), point.y(), StdDraw.getPenRadius() * 2);
+        StdDraw.filledCircle(x, y, StdDraw.getPenRadius() * 2);
 
         if (node.isVertical) {
             StdDraw.setPenColor(StdDraw.RED);
-            StdDraw.line(point.x(), min.y(), point.x(), max.y());
+            StdDraw.line(x, ymin, x, ymax);
+
+            draw(node.left, xmin, ymin, x, ymax);
+            draw(node.right, x, ymin, xmax, ymax);
         } else {
             StdDraw.setPenColor(StdDraw.BLUE);
-            StdDraw.line(min.x(), point.y(), max.x(), point.y());
-        }
+            StdDraw.line(xmin, y, xmax, y);
 
-        final Point2D maxLeft = node.isVertical ? new Point2D(node.x(), max.y()) : new Point2D(max.x(), node.y()),
-                minRight = node.isVertical ? new Point2D(node.x(), min.y()) : new Point2D(min.x(), node.y());
-
-        draw(node.left, min, maxLeft);
-        draw(node.right, minRight, max);
+            draw(node.left, xmin, ymin, xmax, y);
+            draw(node.right, xmin, y, xmax, ymax);
+        }
     }
 
     /**
@@ -152,111 +517,309 @@ public class KdTree {
             throw new IllegalArgumentException();
 
         final List<Point2D> result = new ArrayList<>();
-        return range(rect, root, new RectHV(0.0, 0.0, 1.0, 1.0), result);
+        range(root, rect.xmin(), rect.ymin(), rect.xmax(), rect.ymax(), result::add);
+        return result;
     }
 
-    private List<Point2D> range(final RectHV rect, final KdNode node, final RectHV origin, final List<Point2D> result) {
-        if (rect == null)
+    /**
+     * passes all points that are inside the rectangle (or on the boundary) to
+     * the action, without collecting them
+     * 
+     * @param rect
+     * @param action
+     */
+    public void range(RectHV rect, Consumer<Point2D> action) {
+        if (rect == null || action == null)
             throw new IllegalArgumentException();
 
+        range(root, rect.xmin(), rect.ymin(), rect.xmax(), rect.ymax(), action);
+    }
+
+    private void range(final KdNode node, final double xmin, final double ymin, final double xmax, final double ymax,
+            final Consumer<Point2D> action) {
         if (node == null)
-            return result;
+            return;
 
-        if (rect.contains(node.point)) {
-            result.add(node.point);
+        final double x = node.x(), y = node.y();
+        if (x >= xmin && x <= xmax && y >= ymin && y <= ymax) {
+            action.accept(node.point);
         }
 
-        if (node.left != null) {
-            final RectHV rectLeft = getIntersectionRectLeftSubtree(node, origin);
-            if (rectLeft.intersects(rect)) {
-                range(rect, node.left, rectLeft, result);
-            }
+        // left subtree holds strictly smaller coordinates, right subtree greater or equal ones
+        final double split = node.isVertical ? x : y;
+        if ((node.isVertical ? xmin : ymin) < split) {
+            range(node.left, xmin, ymin, xmax, ymax, action);
         }
-
-        if (node.right != null) {
-            final RectHV rectRight = getIntersectionRectRightSubtree(node, origin);
-            if (rectRight.intersects(rect)) {
-                range(rect, node.right, rectRight, result);
-            }
+        if ((node.isVertical ? xmax : ymax) >= split) {
+            range(node.right, xmin, ymin, xmax, ymax, action);
         }
+    }
 
-        return result;
+    /**
+     * a nearest neighbor in the set to point p; null if the set is empty
+     * 
+     * @param p
+     * @return
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+
+        if (root == null)
+            return null;
+
+        return nearest(root, xmin, ymin, xmax, ymax, p, root.point);
     }
 
-    private RectHV getIntersectionRectLeftSubtree(final KdNode node, final RectHV origin) {
+    /**
+     * Exact nearest-neighbor search of the subtree at {@code node}, whose
+     * points lie in the cell [xmin, xmax] x [ymin, ymax]. It prunes like a
+     * {@link NeighborSearch} for one neighbor with no error bound and no
+     * budget, but keeps the champion in a local and the cell in primitives,
+     * so the query allocates nothing.
+     * 
+     * @return the closest point found so far
+     */
+    private Point2D nearest(final KdNode node, final double xmin, final double ymin, final double xmax, final double ymax,
+            final Point2D point, Point2D champion) {
+        if (node == null) return champion;
+        
+        final double distanceNearest = point.distanceSquaredTo(champion);
+        if (distanceSquaredToCell(point, xmin, ymin, xmax, ymax) > distanceNearest) return champion;
+        
+        if (point.distanceSquaredTo(node.point) < distanceNearest) champion = node.point;
+        
+        final double x = node.x(), y = node.y();
         if (node.isVertical) {
-            return new RectHV(origin.xmin(), origin.ymin(), node.x(), origin.ymax());
+            if (point.x() < x) {
+                champion = nearest(node.left, xmin, ymin, x, ymax, point, champion);
+                champion = nearest(node.right, x, ymin, xmax, ymax, point, champion);
+            } else {
+                champion = nearest(node.right, x, ymin, xmax, ymax, point, champion);
+                champion = nearest(node.left, xmin, ymin, x, ymax, point, champion);
+            }
         } else {
-            return new RectHV(origin.xmin(), origin.ymin(), origin.xmax(), node.y());
+            if (point.y() < y) {
+                champion = nearest(node.left, xmin, ymin, xmax, y, point, champion);
+                champion = nearest(node.right, xmin, y, xmax, ymax, point, champion);
+            } else {
+                champion = nearest(node.right, xmin, y, xmax, ymax, point, champion);
+                champion = nearest(node.left, xmin, ymin, xmax, y, point, champion);
+            }
         }
+        
+        return champion;
     }
 
-    private RectHV getIntersectionRectRightSubtree(final KdNode node, final RectHV origin) {
-        if (node.isVertical) {
-            return new RectHV(node.x(), origin.ymin(), origin.xmax(), origin.ymax());
-        } else {
-            return new RectHV(origin.xmin(), node.y(), origin.xmax(), origin.ymax());
-        }
+    /**
+     * a point in the set whose distance to p is at most (1 + epsilon) times
+     * the distance to a nearest neighbor; null if the set is empty. Subtrees
+     * whose cell is farther than the best distance so far divided by
+     * (1 + epsilon) are skipped, so larger values visit fewer nodes.
+     * 
+     * @param p
+     * @param epsilon relative error bound; 0 gives an exact nearest neighbor
+     * @return
+     * @throws IllegalArgumentException if p is null or epsilon is negative or NaN
+     */
+    public Point2D nearest(Point2D p, double epsilon) {
+        return nearest(p, epsilon, Integer.MAX_VALUE);
     }
 
     /**
-     * a nearest neighbor in the set to point p; null if the set is empty
+     * like {@link #nearest(Point2D, double)}, but gives up after visiting
+     * {@code maxVisited} nodes and returns the best point found by then, which
+     * may then be farther than the error bound allows
      * 
      * @param p
+     * @param epsilon relative error bound
+     * @param maxVisited maximum number of nodes to visit
      * @return
+     * @throws IllegalArgumentException if p is null, epsilon is negative or NaN, or maxVisited is less than 1
      */
-    public Point2D nearest(Point2D p) {
-        if (p == null)
+    public Point2D nearest(Point2D p, double epsilon, int maxVisited) {
+        if (p == null || !(epsilon >= 0) || maxVisited < 1)
             throw new IllegalArgumentException();
 
         if (root == null)
             return null;
 
-        return nearest(root, new RectHV(0.0, 0.0, 1.0, 1.0), p, root.point);
+        return nearest(p, new NeighborSearch(1, epsilon, maxVisited))[0];
     }
-    
-    private Point2D nearest(final KdNode node, final RectHV origin, final Point2D point, final Point2D currentChampion) {
-        if (node == null) return currentChampion;
-        
-        final KdNode candidateNodeFirst, candidateNodeSecond;
-        final boolean isLeftorTop = isLeftOrTop(node, point);
-        if (isLeftorTop) {
-            candidateNodeFirst = node.left;
-            candidateNodeSecond = node.right;
-        } else {
-            candidateNodeFirst = node.right;
-            candidateNodeSecond = node.left;
+
+    /**
+     * the k points in the set nearest to p, nearest first; fewer if the set
+     * has less than k points
+     * 
+     * @param p
+     * @param k number of neighbors
+     * @return
+     * @throws IllegalArgumentException if p is null or k is negative
+     */
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        if (p == null || k < 0)
+            throw new IllegalArgumentException();
+
+        final NeighborSearch search = new NeighborSearch(Math.min(k, size), 0.0, Integer.MAX_VALUE);
+        return Arrays.asList(nearest(p, search));
+    }
+
+    /**
+     * the k nearest neighbors of each query point, as for
+     * {@link #nearest(Point2D, int)}; the search buffers are shared by all
+     * queries
+     * 
+     * @param queries query points
+     * @param k number of neighbors
+     * @return result[i] holds the neighbors of queries[i], nearest first
+     * @throws IllegalArgumentException if queries or any of them is null, or k is negative
+     */
+    public Point2D[][] nearest(Point2D[] queries, int k) {
+        if (queries == null || k < 0)
+            throw new IllegalArgumentException();
+
+        final NeighborSearch search = new NeighborSearch(Math.min(k, size), 0.0, Integer.MAX_VALUE);
+        final Point2D[][] result = new Point2D[queries.length][];
+        for (int i = 0; i < queries.length; i++) {
+            if (queries[i] == null)
+                throw new IllegalArgumentException();
+            result[i] = nearest(queries[i], search);
         }
-        
-        Point2D candidateChampion = currentChampion;
-        double distanceNearest = point.distanceSquaredTo(candidateChampion);
-        
-        if (candidateNodeFirst != null) {
-            final RectHV rect = isLeftorTop ? getIntersectionRectLeftSubtree(node, origin) : getIntersectionRectRightSubtree(node, origin);
-            
-            final double distanceToRect = rect.distanceSquaredTo(point);
-            if (distanceToRect <= distanceNearest) {
-                final double distanceToPoint = point.distanceSquaredTo(candidateNodeFirst.point);
-                        
-                final Point2D champ = distanceToPoint < distanceNearest ? candidateNodeFirst.point : candidateChampion;
-                candidateChampion = nearest(candidateNodeFirst, rect, point, champ);
-                distanceNearest = point.distanceSquaredTo(candidateChampion);
+        return result;
+    }
+
+    /**
+     * runs the search for p from the root, whose cell is the bounding box
+     * 
+     * @return the neighbors found, nearest first
+     */
+    private Point2D[] nearest(final Point2D p, final NeighborSearch search) {
+        return search.search(this, p, xmin, ymin, xmax, ymax);
+    }
+
+    /**
+     * Best-bin-first search for the k nearest neighbors of a point, with a
+     * relative error bound and a budget of visited nodes; it answers the
+     * approximate and k-nearest queries, while exact single-neighbor queries
+     * use the allocation-free champion recursion. The child on the query's
+     * side is searched first, and once the heap holds k candidates a cell is
+     * skipped if its distance times (1 + epsilon) exceeds the k-th nearest
+     * distance so far. With an error bound of 0 and no budget the result is
+     * exact. It is package-private so that benchmarks can start it from a
+     * chosen root region and read how many nodes it visited.
+     * 
+     * @author mb
+     */
+    static class NeighborSearch {
+        private final NeighborHeap heap; // best candidates so far; its capacity is k
+        private final double scale; // (1 + epsilon)^2, applied to squared cell distances
+        private final int maxVisited; // budget of visited nodes per query
+        private Point2D point; // current query point
+        private int visits; // nodes visited for the current query
+
+        NeighborSearch(final int k, final double epsilon, final int maxVisited) {
+            this.heap = new NeighborHeap(k);
+            this.scale = (1 + epsilon) * (1 + epsilon);
+            this.maxVisited = maxVisited;
+        }
+
+        /**
+         * neighbors of point in the tree, nearest first, searched with
+         * [xmin, xmax] x [ymin, ymax] as the cell of the root; resets the heap
+         * and the visit count, so the search can be reused across queries
+         */
+        Point2D[] search(final KdTree tree, final Point2D point, final double xmin, final double ymin,
+                final double xmax, final double ymax) {
+            this.point = point;
+            visits = 0;
+            heap.clear();
+            if (heap.capacity() > 0) {
+                search(tree.root, xmin, ymin, xmax, ymax);
             }
+            return heap.drainSorted();
         }
-        
-        if (candidateNodeSecond != null) {
-            final RectHV rect = isLeftorTop ? getIntersectionRectRightSubtree(node, origin) : getIntersectionRectLeftSubtree(node, origin);
-            
-            final double distanceToRect = rect.distanceSquaredTo(point);
-            if (distanceToRect <= distanceNearest) {
-                final double distanceToPoint = point.distanceSquaredTo(candidateNodeSecond.point);
-                
-                final Point2D champ = distanceToPoint < distanceNearest ? candidateNodeSecond.point : candidateChampion;
-                candidateChampion = nearest(candidateNodeSecond, rect, point, champ);
+
+        /**
+         * number of nodes visited by the latest search
+         */
+        int visits() {
+            return visits;
+        }
+
+        private void search(final KdNode node, final double xmin, final double ymin, final double xmax, final double ymax) {
+            if (node == null || visits >= maxVisited) return;
+            if (heap.isFull() && distanceSquaredToCell(point, xmin, ymin, xmax, ymax) * scale > heap.maxDistance()) return;
+
+            visits++;
+            heap.offer(node.point, point.distanceSquaredTo(node.point));
+
+            final double x = node.x(), y = node.y();
+            if (node.isVertical) {
+                if (point.x() < x) {
+                    search(node.left, xmin, ymin, x, ymax);
+                    search(node.right, x, ymin, xmax, ymax);
+                } else {
+                    search(node.right, x, ymin, xmax, ymax);
+                    search(node.left, xmin, ymin, x, ymax);
+                }
+            } else {
+                if (point.y() < y) {
+                    search(node.left, xmin, ymin, xmax, y);
+                    search(node.right, xmin, y, xmax, ymax);
+                } else {
+                    search(node.right, xmin, y, xmax, ymax);
+                    search(node.left, xmin, ymin, xmax, y);
+                }
             }
         }
-        
-        return candidateChampion;
+    }
+
+    /**
+     * all points within distance r of p (or exactly at distance r)
+     * 
+     * @param p
+     * @param r radius
+     * @return
+     * @throws IllegalArgumentException if p is null or r is negative or NaN
+     */
+    public Iterable<Point2D> withinRadius(Point2D p, double r) {
+        if (p == null || !(r >= 0.0))
+            throw new IllegalArgumentException();
+
+        final List<Point2D> result = new ArrayList<>();
+        withinRadius(root, p, r, r * r, result);
+        return result;
+    }
+
+    private void withinRadius(final KdNode node, final Point2D p, final double r, final double r2,
+            final List<Point2D> result) {
+        if (node == null)
+            return;
+
+        if (p.distanceSquaredTo(node.point) <= r2) {
+            result.add(node.point);
+        }
+
+        final double c = node.isVertical ? p.x() : p.y(), split = node.isVertical ? node.x() : node.y();
+        if (c - r < split) {
+            withinRadius(node.left, p, r, r2, result);
+        }
+        if (c + r >= split) {
+            withinRadius(node.right, p, r, r2, result);
+        }
+    }
+
+    /**
+     * squared distance between point and the cell [xmin, xmax] x [ymin, ymax]; 0 if inside
+     */
+    private static double distanceSquaredToCell(final Point2D point, final double xmin, final double ymin,
+            final double xmax, final double ymax) {
+        double dx = 0.0, dy = 0.0;
+        if (point.x() < xmin) dx = point.x() - xmin;
+        else if (point.x() > xmax) dx = point.x() - xmax;
+        if (point.y() < ymin) dy = point.y() - ymin;
+        else if (point.y() > ymax) dy = point.y() - ymax;
+        return dx * dx + dy * dy;
     }
 
     private boolean isLeftOrTop(final KdNode node, final Point2D point) {
@@ -266,13 +829,217 @@ public class KdTree {
         return node.isVertical && point.x() < node.x() || !node.isVertical && point.y() < node.y();
     }
 
+    /**
+     * Set of (x, y) pairs in an open-addressing hash table with linear
+     * probing. Coordinates are stored as their bits in two parallel arrays;
+     * NaN, which no point can have, marks an empty slot. The table is kept at
+     * most half full, and removal shifts later entries of the probe run back
+     * instead of leaving tombstones.
+     * 
+     * @author mb
+     */
+    private static class PointHash {
+        private static final long EMPTY = Double.doubleToLongBits(Double.NaN);
+
+        private long[] xs, ys; // coordinate bits of each slot
+        private int count; // number of pairs stored
+
+        public PointHash(final int expected) {
+            int capacity = 16;
+            while (capacity < 2L * expected) capacity <<= 1;
+            allocate(capacity);
+        }
+
+        private void allocate(final int capacity) {
+            xs = new long[capacity];
+            ys = new long[capacity];
+            Arrays.fill(xs, EMPTY);
+        }
+
+        public long bytes() {
+            return 16L * xs.length;
+        }
+
+        /**
+         * bits of a coordinate, with -0.0 folded into 0.0 as in Point2D.equals
+         */
+        private static long bits(final double c) {
+            return Double.doubleToLongBits(c + 0.0);
+        }
+
+        private int slot(final long x, final long y) {
+            long h = x * 0x9E3779B97F4A7C15L + y;
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            return (int) h & (xs.length - 1);
+        }
+
+        /**
+         * slot holding (x, y), or the empty slot ending its probe run
+         */
+        private int find(final long x, final long y) {
+            final int mask = xs.length - 1;
+            int i = slot(x, y);
+            while (xs[i] != EMPTY && (xs[i] != x || ys[i] != y)) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        public boolean contains(final double x, final double y) {
+            return xs[find(bits(x), bits(y))] != EMPTY;
+        }
+
+        /**
+         * @return false if the pair was already present
+         */
+        public boolean add(final double x, final double y) {
+            final long bx = bits(x), by = bits(y);
+            int i = find(bx, by);
+            if (xs[i] != EMPTY)
+                return false;
+
+            if (2 * (count + 1) > xs.length) {
+                final long[] oldXs = xs, oldYs = ys;
+                allocate(2 * xs.length);
+                for (int j = 0; j < oldXs.length; j++) {
+                    if (oldXs[j] != EMPTY) {
+                        final int k = find(oldXs[j], oldYs[j]);
+                        xs[k] = oldXs[j];
+                        ys[k] = oldYs[j];
+                    }
+                }
+                i = find(bx, by);
+            }
+            xs[i] = bx;
+            ys[i] = by;
+            count++;
+            return true;
+        }
+
+        /**
+         * @return false if the pair was not present
+         */
+        public boolean remove(final double x, final double y) {
+            final int mask = xs.length - 1;
+            int hole = find(bits(x), bits(y));
+            if (xs[hole] == EMPTY)
+                return false;
+
+            // move back every later entry of the run whose home slot does not lie after the hole
+            for (int i = (hole + 1) & mask; xs[i] != EMPTY; i = (i + 1) & mask) {
+                final int home = slot(xs[i], ys[i]);
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    xs[hole] = xs[i];
+                    ys[hole] = ys[i];
+                    hole = i;
+                }
+            }
+            xs[hole] = EMPTY;
+            count--;
+            return true;
+        }
+    }
+
+    /**
+     * Bounded max-heap of candidate neighbors keyed by squared distance, so
+     * the farthest candidate can be replaced in logarithmic time
+     * 
+     * @author mb
+     */
+    private static class NeighborHeap {
+        private final Point2D[] points; // heap-ordered candidates, 1-based
+        private final double[] distances; // squared distances of candidates
+        private int n; // number of candidates
+
+        public NeighborHeap(final int capacity) {
+            points = new Point2D[capacity + 1];
+            distances = new double[capacity + 1];
+        }
+
+        public int capacity() {
+            return points.length - 1;
+        }
+
+        public boolean isFull() {
+            return n == points.length - 1;
+        }
+
+        public double maxDistance() {
+            return distances[1];
+        }
+
+        public void clear() {
+            n = 0;
+        }
+
+        /**
+         * adds the candidate if the heap is not full or it beats the farthest one
+         */
+        public void offer(final Point2D point, final double distance) {
+            if (!isFull()) {
+                n++;
+                points[n] = point;
+                distances[n] = distance;
+                swim(n);
+            } else if (distance < distances[1]) {
+                points[1] = point;
+                distances[1] = distance;
+                sink(1);
+            }
+        }
+
+        /**
+         * removes all candidates, nearest first
+         */
+        public Point2D[] drainSorted() {
+            final Point2D[] result = new Point2D[n];
+            while (n > 0) {
+                result[n - 1] = points[1];
+                exchange(1, n);
+                points[n] = null;
+                n--;
+                sink(1);
+            }
+            return result;
+        }
+
+        private void swim(int k) {
+            while (k > 1 && distances[k / 2] < distances[k]) {
+                exchange(k, k / 2);
+                k = k / 2;
+            }
+        }
+
+        private void sink(int k) {
+            while (2 * k <= n) {
+                int j = 2 * k;
+                if (j < n && distances[j] < distances[j + 1]) j++;
+                if (distances[k] >= distances[j]) break;
+                exchange(k, j);
+                k = j;
+            }
+        }
+
+        private void exchange(final int i, final int j) {
+            final Point2D point = points[i];
+            points[i] = points[j];
+            points[j] = point;
+            final double distance = distances[i];
+            distances[i] = distances[j];
+            distances[j] = distance;
+        }
+    }
+
     private static class KdNode {
 
         KdNode left;
         KdNode right;
 
         boolean isVertical;
-        private final Point2D point;
+        private Point2D point;
+        int count; // number of nodes in this subtree
 
         public KdNode(final Point2D point, final boolean isVertical, final KdNode left, final KdNode right) {
             super();
@@ -280,6 +1047,7 @@ public class KdTree {
             this.isVertical = isVertical;
             this.left = left;
             this.right = right;
+            this.count = 1 + KdTree.count(left) + KdTree.count(right);
         }
 
         public KdNode(final Point2D point, final boolean isVertical) {
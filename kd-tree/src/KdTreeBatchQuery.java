@@ -0,0 +1,309 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ *
+ * Answers large batches of nearest-neighbor and range queries against a
+ * {@link KdTree} that is no longer modified. Queries are ordered along a
+ * Morton (Z-order) curve, so consecutive queries touch the same parts of the
+ * tree, and the ordered batch is split across a fork-join pool. Results are
+ * returned in columnar primitive arrays, indexed like the queries.
+ *
+ * The tree must not be modified while a batch is running.
+ *
+ * @author mb
+ *
+ */
+public class KdTreeBatchQuery {
+
+    private static final int SEQUENTIAL_CUTOFF = 256; // queries handled by one task
+
+    private final KdTree tree;
+    private final ForkJoinPool pool;
+
+    /**
+     * construct a query engine running on the common fork-join pool
+     *
+     * @param tree tree to query
+     * @throws IllegalArgumentException if tree is null
+     */
+    public KdTreeBatchQuery(KdTree tree) {
+        this(tree, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * construct a query engine running on the given pool
+     *
+     * @param tree tree to query
+     * @param pool pool executing the queries
+     * @throws IllegalArgumentException if tree or pool is null
+     */
+    public KdTreeBatchQuery(KdTree tree, ForkJoinPool pool) {
+        if (tree == null || pool == null)
+            throw new IllegalArgumentException();
+
+        this.tree = tree;
+        this.pool = pool;
+    }
+
+    /**
+     * nearest neighbor of every query point (qx[i], qy[i]); the neighbor's
+     * coordinates are stored in (nearestX[i], nearestY[i]), or NaN if the tree
+     * is empty
+     *
+     * @param qx x-coordinates of the queries
+     * @param qy y-coordinates of the queries
+     * @param nearestX receives x-coordinates of the neighbors
+     * @param nearestY receives y-coordinates of the neighbors
+     * @throws IllegalArgumentException if any array is null or the lengths differ
+     */
+    public void nearest(double[] qx, double[] qy, double[] nearestX, double[] nearestY) {
+        if (qx == null || qy == null || nearestX == null || nearestY == null)
+            throw new IllegalArgumentException();
+        if (qy.length != qx.length || nearestX.length != qx.length || nearestY.length != qx.length)
+            throw new IllegalArgumentException("array lengths differ");
+
+        final int[] order = mortonOrder(qx, qy);
+        pool.invoke(new QueryTask(order, 0, order.length, i -> {
+            final Point2D nearest = tree.nearest(new Point2D(qx[i], qy[i]));
+            nearestX[i] = nearest == null ? Double.NaN : nearest.x();
+            nearestY[i] = nearest == null ? Double.NaN : nearest.y();
+        }));
+    }
+
+    /**
+     * all points inside each query rectangle (or on its boundary)
+     *
+     * @param rects query rectangles
+     * @return points of rects[i] in positions [offsets()[i], offsets()[i + 1])
+     * @throws IllegalArgumentException if rects or any of them is null
+     */
+    public RangeResult range(RectHV[] rects) {
+        if (rects == null)
+            throw new IllegalArgumentException();
+
+        final double[] cx = new double[rects.length], cy = new double[rects.length];
+        for (int i = 0; i < rects.length; i++) {
+            if (rects[i] == null)
+                throw new IllegalArgumentException();
+            cx[i] = (rects[i].xmin() + rects[i].xmax()) / 2;
+            cy[i] = (rects[i].ymin() + rects[i].ymax()) / 2;
+        }
+
+        // each query first collects its points as interleaved x, y pairs
+        final double[][] perQuery = new double[rects.length][];
+        final int[] order = mortonOrder(cx, cy);
+        pool.invoke(new QueryTask(order, 0, order.length, i -> {
+            final PairBuffer buffer = new PairBuffer();
+            tree.range(rects[i], buffer);
+            perQuery[i] = buffer.toArray();
+        }));
+
+        final int[] offsets = new int[rects.length + 1];
+        for (int i = 0; i < rects.length; i++) {
+            offsets[i + 1] = offsets[i] + perQuery[i].length / 2;
+        }
+        final double[] xs = new double[offsets[rects.length]], ys = new double[offsets[rects.length]];
+        for (int i = 0; i < rects.length; i++) {
+            final double[] pairs = perQuery[i];
+            for (int j = 0, k = offsets[i]; j < pairs.length; j += 2, k++) {
+                xs[k] = pairs[j];
+                ys[k] = pairs[j + 1];
+            }
+        }
+        return new RangeResult(offsets, xs, ys);
+    }
+
+    /**
+     * query indexes sorted by the Morton code of their (x, y) position within
+     * the bounding box of all queries
+     */
+    private static int[] mortonOrder(final double[] xs, final double[] ys) {
+        final int n = xs.length;
+        double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+        double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            xmin = Math.min(xmin, xs[i]);
+            xmax = Math.max(xmax, xs[i]);
+            ymin = Math.min(ymin, ys[i]);
+            ymax = Math.max(ymax, ys[i]);
+        }
+        final double sx = xmax > xmin ? 65535.0 / (xmax - xmin) : 0.0;
+        final double sy = ymax > ymin ? 65535.0 / (ymax - ymin) : 0.0;
+
+        // Morton code in the high 32 bits, query index in the low 32 bits; the
+        // top bit of the code lands in the sign bit, so it is flipped to keep
+        // the signed sort in Z-order (the index bits are unaffected)
+        final long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            final int qx = (int) ((xs[i] - xmin) * sx), qy = (int) ((ys[i] - ymin) * sy);
+            keys[i] = ((interleave(qx) | interleave(qy) << 1) << 32 | i) ^ Long.MIN_VALUE;
+        }
+        Arrays.parallelSort(keys);
+
+        final int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /**
+     * spreads the low 16 bits of v to the even bit positions
+     */
+    private static long interleave(final int v) {
+        long x = v & 0xffffL;
+        x = (x | x << 8) & 0x00ff00ffL;
+        x = (x | x << 4) & 0x0f0f0f0fL;
+        x = (x | x << 2) & 0x33333333L;
+        x = (x | x << 1) & 0x55555555L;
+        return x;
+    }
+
+    /**
+     * Runs the query for each index in order[lo, hi), splitting in halves
+     * down to the sequential cutoff
+     *
+     * @author mb
+     */
+    private static class QueryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] order; // query indexes in Morton order
+        private final int lo, hi; // range of order handled by this task
+        private final IntConsumer query; // answers the query with the given index
+
+        public QueryTask(final int[] order, final int lo, final int hi, final IntConsumer query) {
+            this.order = order;
+            this.lo = lo;
+            this.hi = hi;
+            this.query = query;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= SEQUENTIAL_CUTOFF) {
+                for (int j = lo; j < hi; j++) {
+                    query.accept(order[j]);
+                }
+                return;
+            }
+
+            final int mid = (lo + hi) >>> 1;
+            invokeAll(new QueryTask(order, lo, mid, query), new QueryTask(order, mid, hi, query));
+        }
+    }
+
+    /**
+     * Growable array of interleaved x, y coordinates
+     *
+     * @author mb
+     */
+    private static class PairBuffer implements Consumer<Point2D> {
+        private double[] pairs = new double[16];
+        private int n; // number of doubles used
+
+        @Override
+        public void accept(final Point2D point) {
+            if (n + 2 > pairs.length) pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+            pairs[n++] = point.x();
+            pairs[n++] = point.y();
+        }
+
+        public double[] toArray() {
+            return Arrays.copyOf(pairs, n);
+        }
+    }
+
+    /**
+     * Points found by a batch of range queries, in compressed sparse row
+     * layout: the points of query i are (xs[j], ys[j]) for j in
+     * [offsets[i], offsets[i + 1])
+     *
+     * @author mb
+     */
+    public static class RangeResult {
+        private final int[] offsets;
+        private final double[] xs, ys;
+
+        RangeResult(final int[] offsets, final double[] xs, final double[] ys) {
+            this.offsets = offsets;
+            this.xs = xs;
+            this.ys = ys;
+        }
+
+        /**
+         * start of each query's points; one more entry than there are queries
+         *
+         * @return
+         */
+        public int[] offsets() {
+            return offsets;
+        }
+
+        /**
+         * x-coordinates of all points found
+         *
+         * @return
+         */
+        public double[] xs() {
+            return xs;
+        }
+
+        /**
+         * y-coordinates of all points found
+         *
+         * @return
+         */
+        public double[] ys() {
+            return ys;
+        }
+    }
+
+    /**
+     * measures how batch nearest-neighbor queries scale with the number of
+     * worker threads
+     */
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        final int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        final Point2D[] points = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+        }
+        final double[] qx = new double[queries], qy = new double[queries];
+        for (int i = 0; i < queries; i++) {
+            qx[i] = StdRandom.uniform();
+            qy[i] = StdRandom.uniform();
+        }
+        final double[] nx = new double[queries], ny = new double[queries];
+        final KdTree tree = new KdTree(points);
+
+        double baseline = 0.0;
+        StdOut.printf("%8s %10s %8s\n", "threads", "seconds", "speedup");
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            final KdTreeBatchQuery engine = new KdTreeBatchQuery(tree, pool);
+            engine.nearest(qx, qy, nx, ny); // warm up
+
+            final Stopwatch stopwatch = new Stopwatch();
+            engine.nearest(qx, qy, nx, ny);
+            final double elapsed = stopwatch.elapsedTime();
+            pool.shutdown();
+
+            if (threads == 1) baseline = elapsed;
+            StdOut.printf("%8d %10.3f %8.2f\n", threads, elapsed, baseline / elapsed);
+        }
+    }
+}
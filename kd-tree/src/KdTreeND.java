@@ -0,0 +1,480 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ *
+ * Immutable kd-tree over points with any number of dimensions. Coordinates
+ * are kept in one packed array in tree order: the tree over positions [lo, hi)
+ * has its root at the middle position, the left subtree to its left and the
+ * right subtree to its right, so there are no node objects. Each node records
+ * its splitting axis, which either cycles through the dimensions or is the
+ * dimension along which its points are most spread out.
+ *
+ * Points are identified by their index in the input, and the query methods
+ * report those indexes without allocating. Points equal to a splitting
+ * coordinate may sit in either subtree, which the queries take into account.
+ *
+ * @author mb
+ *
+ */
+public class KdTreeND {
+
+    /**
+     * How the splitting axis of each node is chosen
+     */
+    public enum SplitRule {
+        /** axis cycles with the depth of the node */
+        CYCLE,
+        /** axis along which the points of the subtree have the largest extent */
+        MAX_SPREAD
+    }
+
+    private final int dimension; // coordinates per point
+    private final int size; // number of points
+    private final double[] coords; // coordinates of position i at [i * dimension, (i + 1) * dimension)
+    private final int[] ids; // input index of the point at each position
+    private final byte[] axes; // splitting axis of the node at each position
+
+    /**
+     * construct the tree of the given points, splitting along the axis of maximum spread
+     *
+     * @param points points of equal dimension; point i is reported as index i
+     * @throws IllegalArgumentException if points or any of them is null, the dimensions differ or
+     *             a coordinate is NaN or infinite
+     */
+    public KdTreeND(double[][] points) {
+        this(pack(points), points.length == 0 ? 1 : points[0].length, SplitRule.MAX_SPREAD);
+    }
+
+    /**
+     * construct the tree of points packed one after the other in {@code coords}
+     *
+     * @param coords coordinates of point i at [i * dimension, (i + 1) * dimension)
+     * @param dimension coordinates per point
+     * @param rule how splitting axes are chosen
+     * @throws IllegalArgumentException if coords or rule is null, dimension is not in [1, 127],
+     *             the length of coords is not a multiple of it or a coordinate is NaN or infinite
+     */
+    public KdTreeND(double[] coords, int dimension, SplitRule rule) {
+        if (coords == null || rule == null)
+            throw new IllegalArgumentException();
+        if (dimension < 1 || dimension > Byte.MAX_VALUE || coords.length % dimension != 0)
+            throw new IllegalArgumentException("invalid dimension " + dimension);
+        checkFinite(coords);
+
+        this.dimension = dimension;
+        this.size = coords.length / dimension;
+        this.ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+        this.axes = new byte[size];
+        build(coords, 0, size, 0, rule);
+
+        this.coords = new double[coords.length];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(coords, ids[i] * dimension, this.coords, i * dimension, dimension);
+        }
+    }
+
+    private static double[] pack(final double[][] points) {
+        if (points == null)
+            throw new IllegalArgumentException();
+
+        final int dimension = points.length == 0 ? 1 : checkDimension(points[0]);
+        final double[] coords = new double[points.length * dimension];
+        for (int i = 0; i < points.length; i++) {
+            if (checkDimension(points[i]) != dimension)
+                throw new IllegalArgumentException("dimensions differ");
+            System.arraycopy(points[i], 0, coords, i * dimension, dimension);
+        }
+        return coords;
+    }
+
+    private static int checkDimension(final double[] point) {
+        if (point == null)
+            throw new IllegalArgumentException();
+        return point.length;
+    }
+
+    /**
+     * arranges ids[lo, hi) into a subtree rooted at the middle position
+     */
+    private void build(final double[] input, final int lo, final int hi, final int depth, final SplitRule rule) {
+        if (hi - lo <= 0)
+            return;
+
+        final int axis = rule == SplitRule.CYCLE ? depth % dimension : widestAxis(input, lo, hi);
+        final int mid = (lo + hi) >>> 1;
+        select(input, lo, hi - 1, mid, axis);
+        axes[mid] = (byte) axis;
+
+        build(input, lo, mid, depth + 1, rule);
+        build(input, mid + 1, hi, depth + 1, rule);
+    }
+
+    private int widestAxis(final double[] input, final int lo, final int hi) {
+        int widest = 0;
+        double widestSpread = -1.0;
+        for (int axis = 0; axis < dimension; axis++) {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                final double c = input[ids[i] * dimension + axis];
+                if (c < min) min = c;
+                if (c > max) max = c;
+            }
+            if (max - min > widestSpread) {
+                widestSpread = max - min;
+                widest = axis;
+            }
+        }
+        return widest;
+    }
+
+    /**
+     * rearranges ids[lo, hi] so that ids[k] has rank k along the axis (3-way quickselect)
+     */
+    private void select(final double[] input, int lo, int hi, final int k, final int axis) {
+        while (hi > lo) {
+            swap(lo, lo + (hi - lo) / 2);
+            final double pivot = input[ids[lo] * dimension + axis];
+            int lt = lo, gt = hi, i = lo + 1;
+            while (i <= gt) {
+                final double c = input[ids[i] * dimension + axis];
+                if (c < pivot) swap(lt++, i++);
+                else if (c > pivot) swap(i, gt--);
+                else i++;
+            }
+
+            if (k < lt) hi = lt - 1;
+            else if (k > gt) lo = gt + 1;
+            else return;
+        }
+    }
+
+    private void swap(final int i, final int j) {
+        final int tmp = ids[i];
+        ids[i] = ids[j];
+        ids[j] = tmp;
+    }
+
+    /**
+     * is the set empty?
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * number of points in the set
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * number of coordinates per point
+     *
+     * @return
+     */
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * passes the index of every point inside the box [min, max] (or on its
+     * boundary) to the action, without allocating
+     *
+     * @param min lower corner of the box
+     * @param max upper corner of the box
+     * @param action receives point indexes
+     * @throws IllegalArgumentException if any argument is null or a corner has the wrong dimension
+     */
+    public void range(double[] min, double[] max, IntConsumer action) {
+        if (min == null || max == null || action == null)
+            throw new IllegalArgumentException();
+        if (min.length != dimension || max.length != dimension)
+            throw new IllegalArgumentException("dimension is not " + dimension);
+
+        range(0, size, min, max, action);
+    }
+
+    private void range(final int lo, final int hi, final double[] min, final double[] max, final IntConsumer action) {
+        if (hi - lo <= 0)
+            return;
+
+        final int mid = (lo + hi) >>> 1;
+        final int base = mid * dimension;
+        boolean inside = true;
+        for (int axis = 0; axis < dimension && inside; axis++) {
+            final double c = coords[base + axis];
+            inside = c >= min[axis] && c <= max[axis];
+        }
+        if (inside)
+            action.accept(ids[mid]);
+
+        final int axis = axes[mid];
+        final double split = coords[base + axis];
+        if (min[axis] <= split)
+            range(lo, mid, min, max, action);
+        if (max[axis] >= split)
+            range(mid + 1, hi, min, max, action);
+    }
+
+    /**
+     * index of a nearest neighbor to the query point, without allocating; -1
+     * if the set is empty
+     *
+     * @param query
+     * @return
+     * @throws IllegalArgumentException if query is null, has the wrong dimension or a coordinate
+     *             that is NaN or infinite
+     */
+    public int nearest(double[] query) {
+        checkQuery(query);
+        if (size == 0)
+            return -1;
+
+        return ids[nearest(0, size, query, -1, Double.POSITIVE_INFINITY)];
+    }
+
+    /**
+     * searches positions [lo, hi) given the best position and its squared distance so far
+     *
+     * @return best position found
+     */
+    private int nearest(final int lo, final int hi, final double[] query, int best, double bestDistance) {
+        if (hi - lo <= 0)
+            return best;
+
+        final int mid = (lo + hi) >>> 1;
+        final double distance = distanceSquared(mid, query, bestDistance);
+        // the first node always wins, even if its squared distance overflows to infinity
+        if (best < 0 || distance < bestDistance) {
+            best = mid;
+            bestDistance = distance;
+        }
+
+        final int axis = axes[mid];
+        final double offset = query[axis] - coords[mid * dimension + axis];
+        final boolean leftFirst = offset < 0;
+
+        final int nearBest = leftFirst
+                ? nearest(lo, mid, query, best, bestDistance)
+                : nearest(mid + 1, hi, query, best, bestDistance);
+        if (nearBest != best) {
+            best = nearBest;
+            bestDistance = distanceSquared(best, query, Double.POSITIVE_INFINITY);
+        }
+
+        if (offset * offset <= bestDistance) {
+            best = leftFirst
+                    ? nearest(mid + 1, hi, query, best, bestDistance)
+                    : nearest(lo, mid, query, best, bestDistance);
+        }
+        return best;
+    }
+
+    /**
+     * the k nearest neighbors of the query point, nearest first, without
+     * allocating: their indexes are stored in {@code indexes} and their
+     * squared distances in {@code distances}
+     *
+     * @param query
+     * @param k number of neighbors wanted
+     * @param indexes receives the neighbor indexes; length at least k
+     * @param distances receives the squared distances; length at least k
+     * @return number of neighbors found, min(k, size)
+     * @throws IllegalArgumentException if an argument is null, query has the wrong dimension or a
+     *             coordinate that is NaN or infinite, k is negative or a buffer is shorter than k
+     */
+    public int nearest(double[] query, int k, int[] indexes, double[] distances) {
+        checkQuery(query);
+        if (indexes == null || distances == null || k < 0)
+            throw new IllegalArgumentException();
+        if (indexes.length < k || distances.length < k)
+            throw new IllegalArgumentException("buffer is shorter than " + k);
+
+        // indexes[0, count) and distances[0, count) form a max-heap on distance
+        int count = 0;
+        if (k > 0)
+            count = nearest(0, size, query, k, indexes, distances, 0);
+
+        // heapsort in place, so the nearest neighbor comes first
+        for (int n = count - 1; n > 0; n--) {
+            exchange(indexes, distances, 0, n);
+            sink(indexes, distances, 0, n);
+        }
+        for (int i = 0; i < count; i++) {
+            indexes[i] = ids[indexes[i]];
+        }
+        return count;
+    }
+
+    /**
+     * searches positions [lo, hi) for neighbors, keeping the best positions
+     * in a max-heap of {@code count} entries
+     *
+     * @return new number of heap entries
+     */
+    private int nearest(final int lo, final int hi, final double[] query, final int k,
+            final int[] heap, final double[] distances, int count) {
+        if (hi - lo <= 0)
+            return count;
+
+        final int mid = (lo + hi) >>> 1;
+        final double bound = count < k ? Double.POSITIVE_INFINITY : distances[0];
+        final double distance = distanceSquared(mid, query, bound);
+        if (count < k) {
+            heap[count] = mid;
+            distances[count] = distance;
+            swim(heap, distances, count++);
+        } else if (distance < bound) {
+            heap[0] = mid;
+            distances[0] = distance;
+            sink(heap, distances, 0, count);
+        }
+
+        final int axis = axes[mid];
+        final double offset = query[axis] - coords[mid * dimension + axis];
+        if (offset < 0) {
+            count = nearest(lo, mid, query, k, heap, distances, count);
+            if (count < k || offset * offset <= distances[0])
+                count = nearest(mid + 1, hi, query, k, heap, distances, count);
+        } else {
+            count = nearest(mid + 1, hi, query, k, heap, distances, count);
+            if (count < k || offset * offset <= distances[0])
+                count = nearest(lo, mid, query, k, heap, distances, count);
+        }
+        return count;
+    }
+
+    private static void swim(final int[] heap, final double[] distances, int i) {
+        while (i > 0 && distances[(i - 1) / 2] < distances[i]) {
+            exchange(heap, distances, i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+    }
+
+    private static void sink(final int[] heap, final double[] distances, int i, final int n) {
+        while (2 * i + 1 < n) {
+            int j = 2 * i + 1;
+            if (j + 1 < n && distances[j] < distances[j + 1]) j++;
+            if (distances[i] >= distances[j]) break;
+            exchange(heap, distances, i, j);
+            i = j;
+        }
+    }
+
+    private static void exchange(final int[] heap, final double[] distances, final int i, final int j) {
+        final int index = heap[i];
+        heap[i] = heap[j];
+        heap[j] = index;
+        final double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+
+    /**
+     * squared distance from the query to the point at the position; stops
+     * summing once it exceeds {@code bound}
+     */
+    private double distanceSquared(final int position, final double[] query, final double bound) {
+        final int base = position * dimension;
+        double sum = 0.0;
+        for (int axis = 0; axis < dimension && sum <= bound; axis++) {
+            final double d = coords[base + axis] - query[axis];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    private void checkQuery(final double[] query) {
+        if (query == null)
+            throw new IllegalArgumentException();
+        if (query.length != dimension)
+            throw new IllegalArgumentException("dimension is not " + dimension);
+        checkFinite(query);
+    }
+
+    /**
+     * rejects NaN and infinite coordinates, which no distance comparison can rank
+     */
+    private static void checkFinite(final double[] coords) {
+        for (double c : coords) {
+            if (!Double.isFinite(c))
+                throw new IllegalArgumentException("coordinate is not finite: " + c);
+        }
+    }
+
+    /**
+     * times k-nearest-neighbor queries against a linear scan on n random
+     * points of the given dimension
+     */
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        final int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        final int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        final int queries = args.length > 3 ? Integer.parseInt(args[3]) : 1_000;
+
+        final double[] coords = new double[n * dimension];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = StdRandom.uniform();
+        }
+        final double[][] qs = new double[queries][dimension];
+        for (double[] query : qs) {
+            for (int axis = 0; axis < dimension; axis++) {
+                query[axis] = StdRandom.uniform();
+            }
+        }
+
+        Stopwatch stopwatch = new Stopwatch();
+        final KdTreeND tree = new KdTreeND(coords, dimension, SplitRule.MAX_SPREAD);
+        final double buildTime = stopwatch.elapsedTime();
+
+        final int[] indexes = new int[k];
+        final double[] distances = new double[k];
+        double checksum = 0.0;
+        stopwatch = new Stopwatch();
+        for (double[] query : qs) {
+            tree.nearest(query, k, indexes, distances);
+            checksum += distances[k - 1];
+        }
+        final double treeTime = stopwatch.elapsedTime();
+
+        // linear scan keeping the k smallest distances in a sorted array
+        stopwatch = new Stopwatch();
+        for (double[] query : qs) {
+            Arrays.fill(distances, Double.POSITIVE_INFINITY);
+            for (int i = 0; i < n; i++) {
+                double d = 0.0;
+                for (int axis = 0; axis < dimension; axis++) {
+                    final double diff = coords[i * dimension + axis] - query[axis];
+                    d += diff * diff;
+                }
+                if (d < distances[k - 1]) {
+                    int j = k - 1;
+                    for (; j > 0 && distances[j - 1] > d; j--) {
+                        distances[j] = distances[j - 1];
+                    }
+                    distances[j] = d;
+                }
+            }
+            checksum -= distances[k - 1];
+        }
+        final double scanTime = stopwatch.elapsedTime();
+
+        StdOut.printf("build        %8.3f s\n", buildTime);
+        StdOut.printf("KdTreeND     %8.3f s\n", treeTime);
+        StdOut.printf("linear scan  %8.3f s\n", scanTime);
+        StdOut.printf("(checksum %f)\n", checksum);
+    }
+}
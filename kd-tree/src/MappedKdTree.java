@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ *
+ * Read-only 2d-tree queried straight from a memory-mapped file written by
+ * {@link #write(StaticKdTree, Path)}. The file holds the coordinate array of a
+ * {@link StaticKdTree} (a complete tree in breadth-first order), so opening
+ * it only maps the file and reads the header, whatever the number of points;
+ * the operating system pages coordinates in as the queries touch them.
+ *
+ * File layout, little-endian: magic (int), format version (int), number of
+ * points n (long), CRC-32 of the coordinates (long), then 2n doubles holding
+ * x and y of node i at positions 2i and 2i + 1. The checksum is only
+ * compared by {@link #verify()}, so opening stays constant time.
+ *
+ * @author mb
+ *
+ */
+public class MappedKdTree extends ImplicitKdTree {
+
+    private static final int MAGIC = 0x4B445432; // "KDT2"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+
+    // a mapping is limited to 2 GB, so the coordinates are mapped in segments of 2^27 doubles
+    private static final int SEGMENT_SHIFT = 27;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    private final ByteBuffer[] segments; // coordinates, segment by segment
+    private final int size; // number of points
+    private final long checksum; // CRC-32 recorded in the header
+
+    /**
+     * writes the tree to the file, replacing it if it exists
+     *
+     * @param tree tree to be written
+     * @param file destination
+     * @throws IllegalArgumentException if tree or file is null
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(StaticKdTree tree, Path file) throws IOException {
+        if (tree == null || file == null)
+            throw new IllegalArgumentException();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            final CRC32 crc = new CRC32();
+
+            channel.position(HEADER_BYTES);
+            for (int i = 0; i < tree.size(); i++) {
+                if (buffer.remaining() < 16) flush(channel, buffer, crc);
+                buffer.putDouble(tree.x(i)).putDouble(tree.y(i));
+            }
+            flush(channel, buffer, crc);
+
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(tree.size()).putLong(crc.getValue()).flip();
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(true);
+        }
+    }
+
+    private static void flush(final FileChannel channel, final ByteBuffer buffer, final CRC32 crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * maps a file written by {@link #write(StaticKdTree, Path)}; reads only
+     * the header
+     *
+     * @param file tree file
+     * @throws IllegalArgumentException if file is null
+     * @throws IOException if the file cannot be read, or its header or length is invalid
+     */
+    public MappedKdTree(Path file) throws IOException {
+        if (file == null)
+            throw new IllegalArgumentException();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0)
+                    throw new IOException("file is too short for a header: " + file);
+            }
+            header.flip();
+
+            if (header.getInt() != MAGIC)
+                throw new IOException("not a kd-tree file: " + file);
+            final int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("unsupported format version " + version + ": " + file);
+            final long n = header.getLong();
+            checksum = header.getLong();
+            // child indexes 2i + 2 must fit in an int
+            if (n < 0 || n > Integer.MAX_VALUE / 2 - 1 || channel.size() != HEADER_BYTES + 16 * n)
+                throw new IOException("file length does not match " + n + " points: " + file);
+
+            size = (int) n;
+            final long doubles = 2 * n;
+            segments = new ByteBuffer[(int) ((doubles + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int s = 0; s < segments.length; s++) {
+                final long first = (long) s << SEGMENT_SHIFT;
+                final long count = Math.min(doubles - first, 1L << SEGMENT_SHIFT);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + 8 * first, 8 * count)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    /**
+     * does the checksum in the header match the coordinates? Reads the whole file.
+     *
+     * @return
+     */
+    public boolean verify() {
+        final CRC32 crc = new CRC32();
+        for (ByteBuffer segment : segments) {
+            crc.update(segment.duplicate());
+        }
+        return crc.getValue() == checksum;
+    }
+
+    private double coordinate(final long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].getDouble((int) (index & SEGMENT_MASK) << 3);
+    }
+
+    /**
+     * number of points in the set
+     *
+     * @return
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * x-coordinate of the point at node index i
+     *
+     * @param i node index in [0, size)
+     * @return
+     */
+    @Override
+    public double x(int i) {
+        return coordinate(2L * i);
+    }
+
+    /**
+     * y-coordinate of the point at node index i
+     *
+     * @param i node index in [0, size)
+     * @return
+     */
+    @Override
+    public double y(int i) {
+        return coordinate(2L * i + 1);
+    }
+
+    /**
+     * writes a tree of n random points to a temporary file, then compares
+     * building it with opening the file and checks a few queries
+     */
+    public static void main(String[] args) throws IOException {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int queries = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+
+        final Point2D[] points = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+        }
+
+        Stopwatch stopwatch = new Stopwatch();
+        final StaticKdTree tree = new StaticKdTree(points);
+        final double buildTime = stopwatch.elapsedTime();
+
+        final Path file = Files.createTempFile("kdtree-", ".bin");
+        try {
+            stopwatch = new Stopwatch();
+            write(tree, file);
+            final double writeTime = stopwatch.elapsedTime();
+
+            stopwatch = new Stopwatch();
+            final MappedKdTree mapped = new MappedKdTree(file);
+            final double openTime = stopwatch.elapsedTime();
+
+            stopwatch = new Stopwatch();
+            final boolean valid = mapped.verify();
+            final double verifyTime = stopwatch.elapsedTime();
+
+            int mismatches = 0;
+            stopwatch = new Stopwatch();
+            for (int i = 0; i < queries; i++) {
+                final double x = StdRandom.uniform(), y = StdRandom.uniform();
+                if (mapped.nearestIndex(x, y) != tree.nearestIndex(x, y)) mismatches++;
+            }
+            final double queryTime = stopwatch.elapsedTime();
+
+            StdOut.printf("build  %8.3f s\n", buildTime);
+            StdOut.printf("write  %8.3f s (%d bytes)\n", writeTime, Files.size(file));
+            StdOut.printf("open   %8.3f s\n", openTime);
+            StdOut.printf("verify %8.3f s (%s)\n", verifyTime, valid ? "checksum ok" : "checksum mismatch");
+            StdOut.printf("%d queries on both trees in %.3f s, %d mismatches\n", queries, queryTime, mismatches);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ *
+ * Immutable R-tree over rectangles, bulk-loaded with Sort-Tile-Recursive
+ * (STR) packing. The rectangles are sorted into vertical slices by the x
+ * of their centers and each slice by the y of their centers, so runs of
+ * {@code FANOUT} consecutive rectangles form compact tiles; every level above
+ * groups runs of {@code FANOUT} consecutive nodes of the level below.
+ *
+ * All bounding boxes live in one array of doubles, level after level from the
+ * rectangles up to the root, and the children of a node are found by
+ * arithmetic instead of pointers. Queries report rectangles by their index in
+ * the input and use the same closed-boundary semantics as {@link RectHV}.
+ *
+ * @author mb
+ *
+ */
+public class PackedRTree {
+
+    private static final int FANOUT = 16; // children per node
+
+    private final RectHV[] rects; // input rectangles
+    private final int[] ids; // input index of each rectangle in packed order
+    private final double[] boxes; // xmin, ymin, xmax, ymax of node k at 4k .. 4k + 3
+    private final int[] levelStart; // first node of each level; level 0 holds the rectangles
+
+    /**
+     * construct the tree of the given rectangles
+     *
+     * @param rects rectangles to index; rectangle i is reported as index i
+     * @throws IllegalArgumentException if rects or any of them is null
+     */
+    public PackedRTree(RectHV[] rects) {
+        if (rects == null)
+            throw new IllegalArgumentException();
+        for (RectHV rect : rects) {
+            if (rect == null)
+                throw new IllegalArgumentException();
+        }
+
+        this.rects = rects.clone();
+        this.ids = strOrder(this.rects);
+
+        // number of nodes on each level, from the rectangles up to a single root
+        final List<Integer> counts = new ArrayList<>();
+        int total = 0;
+        for (int count = rects.length; count > 0; count = count == 1 ? 0 : (count + FANOUT - 1) / FANOUT) {
+            counts.add(count);
+            total += count;
+        }
+        levelStart = new int[counts.size() + 1];
+        for (int level = 0; level < counts.size(); level++) {
+            levelStart[level + 1] = levelStart[level] + counts.get(level);
+        }
+
+        boxes = new double[4 * total];
+        for (int i = 0; i < rects.length; i++) {
+            final RectHV rect = this.rects[ids[i]];
+            boxes[4 * i] = rect.xmin();
+            boxes[4 * i + 1] = rect.ymin();
+            boxes[4 * i + 2] = rect.xmax();
+            boxes[4 * i + 3] = rect.ymax();
+        }
+        for (int level = 1; level < counts.size(); level++) {
+            for (int node = levelStart[level]; node < levelStart[level + 1]; node++) {
+                final int first = firstChild(level, node), last = lastChild(level, node);
+                double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+                double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+                for (int child = first; child < last; child++) {
+                    xmin = Math.min(xmin, boxes[4 * child]);
+                    ymin = Math.min(ymin, boxes[4 * child + 1]);
+                    xmax = Math.max(xmax, boxes[4 * child + 2]);
+                    ymax = Math.max(ymax, boxes[4 * child + 3]);
+                }
+                boxes[4 * node] = xmin;
+                boxes[4 * node + 1] = ymin;
+                boxes[4 * node + 2] = xmax;
+                boxes[4 * node + 3] = ymax;
+            }
+        }
+    }
+
+    /**
+     * input indexes in STR order: ceil(sqrt(n / FANOUT)) vertical slices by
+     * center x, each sorted by center y
+     */
+    private static int[] strOrder(final RectHV[] rects) {
+        final int n = rects.length;
+        final Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> rects[i].xmin() + rects[i].xmax()));
+
+        final int leaves = (n + FANOUT - 1) / FANOUT;
+        final int slices = (int) Math.ceil(Math.sqrt(leaves));
+        final int sliceSize = slices == 0 ? n : ((leaves + slices - 1) / slices) * FANOUT;
+        for (int lo = 0; lo < n; lo += sliceSize) {
+            Arrays.sort(order, lo, Math.min(n, lo + sliceSize),
+                    Comparator.comparingDouble(i -> rects[i].ymin() + rects[i].ymax()));
+        }
+
+        final int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = order[i];
+        }
+        return ids;
+    }
+
+    private int firstChild(final int level, final int node) {
+        return levelStart[level - 1] + (node - levelStart[level]) * FANOUT;
+    }
+
+    private int lastChild(final int level, final int node) {
+        return Math.min(levelStart[level], firstChild(level, node) + FANOUT);
+    }
+
+    private int root() {
+        return levelStart[levelStart.length - 1] - 1;
+    }
+
+    private int height() {
+        return levelStart.length - 1;
+    }
+
+    /**
+     * is the set empty?
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return rects.length == 0;
+    }
+
+    /**
+     * number of rectangles in the set
+     *
+     * @return
+     */
+    public int size() {
+        return rects.length;
+    }
+
+    /**
+     * the rectangle with the given index
+     *
+     * @param i index in the input
+     * @return
+     */
+    public RectHV rect(int i) {
+        return rects[i];
+    }
+
+    /**
+     * all rectangles that intersect the query rectangle (boundaries included)
+     *
+     * @param query
+     * @return
+     * @throws IllegalArgumentException if query is null
+     */
+    public Iterable<RectHV> intersecting(RectHV query) {
+        final List<RectHV> result = new ArrayList<>();
+        intersecting(query, i -> result.add(rects[i]));
+        return result;
+    }
+
+    /**
+     * passes the index of every rectangle that intersects the query rectangle
+     * (boundaries included) to the action, without allocating
+     *
+     * @param query
+     * @param action receives input indexes
+     * @throws IllegalArgumentException if query or action is null
+     */
+    public void intersecting(RectHV query, IntConsumer action) {
+        if (query == null || action == null)
+            throw new IllegalArgumentException();
+
+        if (!isEmpty())
+            search(height() - 1, root(), query.xmin(), query.ymin(), query.xmax(), query.ymax(), false, action);
+    }
+
+    /**
+     * all rectangles that lie inside the query rectangle (boundaries included)
+     *
+     * @param query
+     * @return
+     * @throws IllegalArgumentException if query is null
+     */
+    public Iterable<RectHV> containedIn(RectHV query) {
+        final List<RectHV> result = new ArrayList<>();
+        containedIn(query, i -> result.add(rects[i]));
+        return result;
+    }
+
+    /**
+     * passes the index of every rectangle that lies inside the query rectangle
+     * (boundaries included) to the action, without allocating
+     *
+     * @param query
+     * @param action receives input indexes
+     * @throws IllegalArgumentException if query or action is null
+     */
+    public void containedIn(RectHV query, IntConsumer action) {
+        if (query == null || action == null)
+            throw new IllegalArgumentException();
+
+        if (!isEmpty())
+            search(height() - 1, root(), query.xmin(), query.ymin(), query.xmax(), query.ymax(), true, action);
+    }
+
+    /**
+     * all rectangles that contain the point (boundaries included)
+     *
+     * @param p
+     * @return
+     * @throws IllegalArgumentException if p is null
+     */
+    public Iterable<RectHV> containing(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+
+        final List<RectHV> result = new ArrayList<>();
+        if (!isEmpty())
+            search(height() - 1, root(), p.x(), p.y(), p.x(), p.y(), false, i -> result.add(rects[i]));
+        return result;
+    }
+
+    /**
+     * reports the rectangles below the node that intersect [xmin, xmax] x
+     * [ymin, ymax], or, if {@code inside}, that lie within it
+     */
+    private void search(final int level, final int node, final double xmin, final double ymin, final double xmax,
+            final double ymax, final boolean inside, final IntConsumer action) {
+        final int b = 4 * node;
+        if (boxes[b] > xmax || boxes[b + 1] > ymax || boxes[b + 2] < xmin || boxes[b + 3] < ymin)
+            return;
+
+        if (level == 0) {
+            if (!inside || boxes[b] >= xmin && boxes[b + 1] >= ymin && boxes[b + 2] <= xmax && boxes[b + 3] <= ymax)
+                action.accept(ids[node]);
+            return;
+        }
+
+        for (int child = firstChild(level, node); child < lastChild(level, node); child++) {
+            search(level - 1, child, xmin, ymin, xmax, ymax, inside, action);
+        }
+    }
+
+    /**
+     * a rectangle nearest to point p (at distance 0 if one contains it); null
+     * if the set is empty
+     *
+     * @param p
+     * @return
+     * @throws IllegalArgumentException if p is null
+     */
+    public RectHV nearest(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+
+        final int i = nearestIndex(p.x(), p.y());
+        return i < 0 ? null : rects[i];
+    }
+
+    /**
+     * input index of a rectangle nearest to (x, y), without allocating; -1
+     * if the set is empty
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    public int nearestIndex(double x, double y) {
+        if (isEmpty())
+            return -1;
+
+        return ids[nearest(height() - 1, root(), x, y, -1)];
+    }
+
+    /**
+     * Depth-first branch-and-bound search below the node: the closest child
+     * is searched first, and children farther than the best rectangle so far
+     * are skipped.
+     *
+     * @return packed position of the best rectangle found so far, or -1
+     */
+    private int nearest(final int level, final int node, final double x, final double y, int best) {
+        if (level == 0) {
+            return best < 0 || distanceSquared(node, x, y) < distanceSquared(best, x, y) ? node : best;
+        }
+
+        final int first = firstChild(level, node), last = lastChild(level, node);
+        int closest = first;
+        for (int child = first + 1; child < last; child++) {
+            if (distanceSquared(child, x, y) < distanceSquared(closest, x, y)) closest = child;
+        }
+
+        best = nearest(level - 1, closest, x, y, best);
+        for (int child = first; child < last; child++) {
+            if (child != closest && distanceSquared(child, x, y) < distanceSquared(best, x, y))
+                best = nearest(level - 1, child, x, y, best);
+        }
+        return best;
+    }
+
+    /**
+     * squared distance from (x, y) to the box of node k
+     */
+    private double distanceSquared(final int k, final double x, final double y) {
+        double dx = 0.0, dy = 0.0;
+        if (x < boxes[4 * k]) dx = boxes[4 * k] - x;
+        else if (x > boxes[4 * k + 2]) dx = x - boxes[4 * k + 2];
+        if (y < boxes[4 * k + 1]) dy = boxes[4 * k + 1] - y;
+        else if (y > boxes[4 * k + 3]) dy = y - boxes[4 * k + 3];
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * times intersection and nearest queries against a linear scan over n
+     * random small rectangles
+     */
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        final RectHV[] rects = new RectHV[n];
+        for (int i = 0; i < n; i++) {
+            final double x = StdRandom.uniform(), y = StdRandom.uniform();
+            rects[i] = new RectHV(x, y, x + StdRandom.uniform(0.0, 0.001), y + StdRandom.uniform(0.0, 0.001));
+        }
+        final RectHV[] windows = new RectHV[queries];
+        final Point2D[] points = new Point2D[queries];
+        for (int i = 0; i < queries; i++) {
+            final double x = StdRandom.uniform(0.0, 0.99), y = StdRandom.uniform(0.0, 0.99);
+            windows[i] = new RectHV(x, y, x + 0.01, y + 0.01);
+            points[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+        }
+
+        Stopwatch stopwatch = new Stopwatch();
+        final PackedRTree tree = new PackedRTree(rects);
+        final double buildTime = stopwatch.elapsedTime();
+
+        final int[] found = new int[1];
+        stopwatch = new Stopwatch();
+        for (RectHV window : windows) {
+            tree.intersecting(window, i -> found[0]++);
+        }
+        final double treeIntersect = stopwatch.elapsedTime();
+
+        stopwatch = new Stopwatch();
+        for (RectHV window : windows) {
+            for (RectHV rect : rects) {
+                if (rect.intersects(window)) found[0]--;
+            }
+        }
+        final double scanIntersect = stopwatch.elapsedTime();
+
+        double difference = 0.0;
+        stopwatch = new Stopwatch();
+        for (Point2D p : points) {
+            difference += tree.nearest(p).distanceSquaredTo(p);
+        }
+        final double treeNearest = stopwatch.elapsedTime();
+
+        stopwatch = new Stopwatch();
+        for (Point2D p : points) {
+            double best = Double.POSITIVE_INFINITY;
+            for (RectHV rect : rects) {
+                best = Math.min(best, rect.distanceSquaredTo(p));
+            }
+            difference -= best;
+        }
+        final double scanNearest = stopwatch.elapsedTime();
+
+        StdOut.printf("%d rectangles, %d queries, built in %.3f s\n", n, queries, buildTime);
+        StdOut.printf("%-12s %12s %12s\n", "", "intersecting", "nearest");
+        StdOut.printf("%-12s %10.3f s %10.3f s\n", "PackedRTree", treeIntersect, treeNearest);
+        StdOut.printf("%-12s %10.3f s %10.3f s\n", "linear scan", scanIntersect, scanNearest);
+        StdOut.printf("(differences %d %f)\n", found[0], difference);
+    }
+}
@@ -0,0 +1,347 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdDraw;
+
+/**
+ *
+ * Set of points in a fixed rectangle, indexed by a uniform grid of square
+ * cells. Each cell keeps the coordinates of its points in a growable
+ * primitive array, so cells hold no point objects. For uniformly distributed
+ * points, insert and contains take constant expected time, and range and
+ * nearest only look at the cells near the query; nearest searches rings of
+ * cells of growing radius around the query.
+ *
+ * In adaptive mode the cell size follows the density of the points: the grid
+ * is rebuilt with cells of half the side whenever the points outnumber the
+ * cells more than a few times over.
+ *
+ * @author mb
+ *
+ */
+public class PointGrid {
+
+    private static final int INITIAL_CELLS_PER_SIDE = 16; // adaptive grid before any refinement
+    private static final int MAX_LOAD = 4; // adaptive mode refines once there are more points per cell
+    private static final int MAX_CELLS = 1 << 22; // cap on the number of cells
+
+    private final RectHV bounds; // region that holds all points
+    private final boolean adaptive; // refine cells as points are added
+
+    private double cellSize; // side of a cell
+    private int columns, rows; // grid dimensions
+    private double[][] cells; // x, y of the points of cell (row * columns + column), interleaved; null if empty
+    private int[] counts; // number of points in each cell
+    private int size; // number of points
+
+    /**
+     * construct an empty adaptive grid for points in the given bounds
+     *
+     * @param bounds region holding all points
+     * @throws IllegalArgumentException if bounds is null
+     */
+    public PointGrid(RectHV bounds) {
+        this(bounds, initialCellSize(bounds), true);
+    }
+
+    /**
+     * construct an empty grid with cells of a fixed size for points in the given bounds
+     *
+     * @param bounds region holding all points
+     * @param cellSize side of a cell
+     * @throws IllegalArgumentException if bounds is null, cellSize is not positive or the grid
+     *             would have too many cells
+     */
+    public PointGrid(RectHV bounds, double cellSize) {
+        this(bounds, cellSize, false);
+    }
+
+    private PointGrid(final RectHV bounds, final double cellSize, final boolean adaptive) {
+        if (bounds == null)
+            throw new IllegalArgumentException();
+        if (!(cellSize > 0) || Double.isInfinite(cellSize))
+            throw new IllegalArgumentException("cell size is not positive");
+
+        this.bounds = bounds;
+        this.adaptive = adaptive;
+        allocate(cellSize);
+    }
+
+    private static double initialCellSize(final RectHV bounds) {
+        if (bounds == null)
+            throw new IllegalArgumentException();
+
+        final double side = Math.max(bounds.width(), bounds.height()) / INITIAL_CELLS_PER_SIDE;
+        return side > 0 ? side : 1.0;
+    }
+
+    /**
+     * sets up an empty grid with the given cell size
+     */
+    private void allocate(final double side) {
+        final double c = Math.ceil(bounds.width() / side), r = Math.ceil(bounds.height() / side);
+        if (Math.max(c, 1) * Math.max(r, 1) > MAX_CELLS)
+            throw new IllegalArgumentException("too many cells");
+
+        cellSize = side;
+        columns = (int) Math.max(c, 1);
+        rows = (int) Math.max(r, 1);
+        cells = new double[columns * rows][];
+        counts = new int[columns * rows];
+    }
+
+    /**
+     * is the set empty?
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * number of points in the set
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * side of a grid cell
+     *
+     * @return
+     */
+    public double cellSize() {
+        return cellSize;
+    }
+
+    /**
+     * add the point to the set (if it is not already in the set)
+     *
+     * @param p
+     * @throws IllegalArgumentException if p is null or outside the bounds
+     */
+    public void insert(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+        if (!bounds.contains(p))
+            throw new IllegalArgumentException("point is outside " + bounds);
+
+        final int cell = cellOf(p.x(), p.y());
+        if (indexIn(cell, p.x(), p.y()) >= 0)
+            return;
+
+        add(cell, p.x(), p.y());
+        size++;
+
+        if (adaptive && size > MAX_LOAD * counts.length && 4L * counts.length <= MAX_CELLS)
+            refine();
+    }
+
+    private void add(final int cell, final double x, final double y) {
+        double[] coords = cells[cell];
+        final int n = counts[cell];
+        if (coords == null) coords = cells[cell] = new double[4];
+        else if (2 * n == coords.length) coords = cells[cell] = Arrays.copyOf(coords, 2 * coords.length);
+
+        coords[2 * n] = x;
+        coords[2 * n + 1] = y;
+        counts[cell] = n + 1;
+    }
+
+    /**
+     * halves the cell size and redistributes the points
+     */
+    private void refine() {
+        final double[][] oldCells = cells;
+        final int[] oldCounts = counts;
+        allocate(cellSize / 2);
+
+        for (int cell = 0; cell < oldCells.length; cell++) {
+            final double[] coords = oldCells[cell];
+            for (int i = 0; i < oldCounts[cell]; i++) {
+                final double x = coords[2 * i], y = coords[2 * i + 1];
+                add(cellOf(x, y), x, y);
+            }
+        }
+    }
+
+    /**
+     * does the set contain point p?
+     *
+     * @param p
+     * @return
+     * @throws IllegalArgumentException if p is null
+     */
+    public boolean contains(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+
+        return bounds.contains(p) && indexIn(cellOf(p.x(), p.y()), p.x(), p.y()) >= 0;
+    }
+
+    /**
+     * position of (x, y) in the cell; -1 if absent
+     */
+    private int indexIn(final int cell, final double x, final double y) {
+        final double[] coords = cells[cell];
+        for (int i = 0; i < counts[cell]; i++) {
+            if (coords[2 * i] == x && coords[2 * i + 1] == y) return i;
+        }
+        return -1;
+    }
+
+    private int cellOf(final double x, final double y) {
+        return row(y) * columns + column(x);
+    }
+
+    /**
+     * column of the x-coordinate, clamped to the grid
+     */
+    private int column(final double x) {
+        final int c = (int) ((x - bounds.xmin()) / cellSize);
+        return Math.max(0, Math.min(columns - 1, c));
+    }
+
+    /**
+     * row of the y-coordinate, clamped to the grid
+     */
+    private int row(final double y) {
+        final int r = (int) ((y - bounds.ymin()) / cellSize);
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+
+    /**
+     * draw all points to standard draw, scaled to the bounds
+     */
+    public void draw() {
+        StdDraw.setXscale(bounds.xmin(), bounds.xmax() > bounds.xmin() ? bounds.xmax() : bounds.xmin() + 1);
+        StdDraw.setYscale(bounds.ymin(), bounds.ymax() > bounds.ymin() ? bounds.ymax() : bounds.ymin() + 1);
+        StdDraw.setPenColor();
+        StdDraw.setPenRadius();
+
+        for (int cell = 0; cell < cells.length; cell++) {
+            for (int i = 0; i < counts[cell]; i++) {
+                StdDraw.point(cells[cell][2 * i], cells[cell][2 * i + 1]);
+            }
+        }
+    }
+
+    /**
+     * all points that are inside the rectangle (or on the boundary)
+     *
+     * @param rect
+     * @return
+     * @throws IllegalArgumentException if rect is null
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null)
+            throw new IllegalArgumentException();
+
+        final List<Point2D> result = new ArrayList<>();
+        if (!rect.intersects(bounds))
+            return result;
+
+        final int c0 = column(rect.xmin()), c1 = column(rect.xmax());
+        final int r0 = row(rect.ymin()), r1 = row(rect.ymax());
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                final int cell = r * columns + c;
+                final double[] coords = cells[cell];
+                for (int i = 0; i < counts[cell]; i++) {
+                    final double x = coords[2 * i], y = coords[2 * i + 1];
+                    if (x >= rect.xmin() && x <= rect.xmax() && y >= rect.ymin() && y <= rect.ymax())
+                        result.add(new Point2D(x, y));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * all points within distance r of p (inclusive)
+     *
+     * @param p
+     * @param r radius
+     * @return
+     * @throws IllegalArgumentException if p is null or r is negative or NaN
+     */
+    public Iterable<Point2D> withinRadius(Point2D p, double r) {
+        if (p == null || !(r >= 0))
+            throw new IllegalArgumentException();
+
+        final List<Point2D> result = new ArrayList<>();
+        final double r2 = r * r;
+        final int c0 = column(p.x() - r), c1 = column(p.x() + r);
+        final int r0 = row(p.y() - r), r1 = row(p.y() + r);
+        for (int row = r0; row <= r1; row++) {
+            for (int c = c0; c <= c1; c++) {
+                final int cell = row * columns + c;
+                final double[] coords = cells[cell];
+                for (int i = 0; i < counts[cell]; i++) {
+                    final double dx = coords[2 * i] - p.x(), dy = coords[2 * i + 1] - p.y();
+                    if (dx * dx + dy * dy <= r2)
+                        result.add(new Point2D(coords[2 * i], coords[2 * i + 1]));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * a nearest neighbor in the set to point p; null if the set is empty
+     *
+     * @param p
+     * @return
+     * @throws IllegalArgumentException if p is null
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null)
+            throw new IllegalArgumentException();
+        if (size == 0)
+            return null;
+
+        final double px = p.x(), py = p.y();
+        final int pc = column(px), pr = row(py);
+        double best = Double.POSITIVE_INFINITY, bestX = 0.0, bestY = 0.0;
+
+        final int maxRing = Math.max(Math.max(pc, columns - 1 - pc), Math.max(pr, rows - 1 - pr));
+        for (int ring = 0; ring <= maxRing; ring++) {
+            final int c0 = pc - ring, c1 = pc + ring, r0 = pr - ring, r1 = pr + ring;
+            for (int r = Math.max(r0, 0); r <= Math.min(r1, rows - 1); r++) {
+                // interior rows of the ring only have their two end cells
+                final int step = r == r0 || r == r1 ? 1 : Math.max(1, c1 - c0);
+                for (int c = c0; c <= c1; c += step) {
+                    if (c < 0 || c >= columns) continue;
+
+                    final int cell = r * columns + c;
+                    final double[] coords = cells[cell];
+                    for (int i = 0; i < counts[cell]; i++) {
+                        final double dx = coords[2 * i] - px, dy = coords[2 * i + 1] - py;
+                        final double d = dx * dx + dy * dy;
+                        if (d < best) {
+                            best = d;
+                            bestX = coords[2 * i];
+                            bestY = coords[2 * i + 1];
+                        }
+                    }
+                }
+            }
+
+            // every cell outside the searched square is at least this far away
+            final double gap = Math.min(
+                    Math.min(c0 > 0 ? px - (bounds.xmin() + c0 * cellSize) : Double.POSITIVE_INFINITY,
+                             c1 < columns - 1 ? bounds.xmin() + (c1 + 1) * cellSize - px : Double.POSITIVE_INFINITY),
+                    Math.min(r0 > 0 ? py - (bounds.ymin() + r0 * cellSize) : Double.POSITIVE_INFINITY,
+                             r1 < rows - 1 ? bounds.ymin() + (r1 + 1) * cellSize - py : Double.POSITIVE_INFINITY));
+            if (gap >= 0 && gap * gap >= best)
+                break;
+        }
+        return new Point2D(bestX, bestY);
+    }
+}
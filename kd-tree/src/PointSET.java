@@ -7,6 +7,7 @@
  ******************************************************************************/
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.TreeSet;
 
@@ -16,7 +17,7 @@ import edu.princeton.cs.algs4.StdDraw;
 
 /**
  * 
- * Mutable data type that represents a set of points in the unit square. 
+ * Mutable data type that represents a set of points in the plane. 
  * Implemented using a red–black BST.
  *  
  * @author mb
@@ -74,9 +75,26 @@ public class PointSET {
     }
 
     /**
-     * draw all points to standard draw
+     * draw all points to standard draw, scaled to their bounding box (or to
+     * the unit square if the set is empty)
      */
     public void draw() {
+        if (points.isEmpty()) {
+            StdDraw.setScale(0.0, 1.0);
+        } else {
+            double xmin = Double.POSITIVE_INFINITY, xmax = Double.NEGATIVE_INFINITY;
+            for (Point2D point : points) {
+                xmin = Math.min(xmin, point.x());
+                xmax = Math.max(xmax, point.x());
+            }
+            // points are ordered by y-coordinate
+            final double ymin = points.first().y(), ymax = points.last().y();
+            final double extent = Math.max(xmax - xmin, ymax - ymin);
+            final double margin = extent > 0 ? 0.05 * extent : 0.5;
+            StdDraw.setXscale(xmin - margin, xmax + margin);
+            StdDraw.setYscale(ymin - margin, ymax + margin);
+        }
+
         StdDraw.setPenColor();
         StdDraw.setPenRadius();
         
@@ -86,7 +104,8 @@ public class PointSET {
     }
 
     /**
-     * all points that are inside the rectangle (or on the boundary)
+     * all points that are inside the rectangle (or on the boundary); only the
+     * points between the bottom and the top edge are examined
      * 
      * @param rect
      * @return
@@ -94,15 +113,28 @@ public class PointSET {
     public Iterable<Point2D> range(RectHV rect) {
         if (rect == null) throw new IllegalArgumentException();
         
+        // points are ordered by y, then x, so (xmin, ymin) and (xmax, ymax) bound the band
+        final Point2D from = new Point2D(finite(rect.xmin()), finite(rect.ymin()));
+        final Point2D to = new Point2D(finite(rect.xmax()), finite(rect.ymax()));
+        
         List<Point2D> list = new ArrayList<>();
-        for (Point2D point : points) {
-            if (rect.contains(point)) list.add(point);
+        for (Point2D point : points.subSet(from, true, to, true)) {
+            if (point.x() >= rect.xmin() && point.x() <= rect.xmax()) list.add(point);
         }
         return list;
     }
 
     /**
-     * a nearest neighbor in the set to point p; null if the set is empty
+     * the value, with infinities replaced by the largest finite values
+     */
+    private static double finite(final double value) {
+        return Math.max(-Double.MAX_VALUE, Math.min(Double.MAX_VALUE, value));
+    }
+
+    /**
+     * a nearest neighbor in the set to point p; null if the set is empty. The
+     * search walks up and down in y from p and stops in each direction once
+     * the difference in y alone exceeds the best distance found.
      * 
      * @param p
      * @return
@@ -110,12 +142,38 @@ public class PointSET {
     public Point2D nearest(Point2D p) {
         if (p == null) throw new IllegalArgumentException();
         
+        final Iterator<Point2D> up = points.tailSet(p, true).iterator();
+        final Iterator<Point2D> down = points.headSet(p, false).descendingIterator();
+        
         double distance = Double.POSITIVE_INFINITY;
         Point2D nearest = null;
-        for (Point2D point : points) {
-            if (p.distanceSquaredTo(point) < distance) {
-                nearest = point;
-                distance = p.distanceSquaredTo(point);
+        boolean searchUp = up.hasNext(), searchDown = down.hasNext();
+        while (searchUp || searchDown) {
+            if (searchUp) {
+                final Point2D point = up.next();
+                final double dy = point.y() - p.y();
+                if (dy * dy > distance) {
+                    searchUp = false;
+                } else {
+                    if (p.distanceSquaredTo(point) < distance) {
+                        nearest = point;
+                        distance = p.distanceSquaredTo(point);
+                    }
+                    searchUp = up.hasNext();
+                }
+            }
+            if (searchDown) {
+                final Point2D point = down.next();
+                final double dy = p.y() - point.y();
+                if (dy * dy > distance) {
+                    searchDown = false;
+                } else {
+                    if (p.distanceSquaredTo(point) < distance) {
+                        nearest = point;
+                        distance = p.distanceSquaredTo(point);
+                    }
+                    searchDown = down.hasNext();
+                }
             }
         }
         return nearest;
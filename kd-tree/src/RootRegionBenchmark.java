@@ -0,0 +1,74 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+/**
+ *
+ * Compares nearest-neighbor searches in {@link KdTree} that start from the
+ * unit square with searches that start from the bounding box of the points.
+ * Both run on the same tree and the same queries, and the number of visited
+ * nodes is reported. For points clustered inside the unit square the loose
+ * root region only costs extra visited nodes; for points outside it (such as
+ * projected coordinates in metres) it prunes cells that still hold the
+ * answer.
+ *
+ * @author mb
+ *
+ */
+public class RootRegionBenchmark {
+
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        final int queries = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+
+        // clustered in [0.40, 0.45] x [0.40, 0.45], queried from all over the unit square
+        final Point2D[] points = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point2D(StdRandom.uniform(0.40, 0.45), StdRandom.uniform(0.40, 0.45));
+        }
+        final KdTree tree = new KdTree(points);
+        final double[] box = boundingBox(points);
+
+        // the same exact searches, started from the old unit square and from the tracked bounding box
+        final KdTree.NeighborSearch search = new KdTree.NeighborSearch(1, 0.0, Integer.MAX_VALUE);
+        long unitVisits = 0, boxVisits = 0;
+        for (int i = 0; i < queries; i++) {
+            final Point2D q = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+            search.search(tree, q, 0.0, 0.0, 1.0, 1.0);
+            unitVisits += search.visits();
+            search.search(tree, q, box[0], box[1], box[2], box[3]);
+            boxVisits += search.visits();
+        }
+        StdOut.printf("visited nodes per query, %d clustered points\n", n);
+        StdOut.printf("  unit square   %10.1f\n", (double) unitVisits / queries);
+        StdOut.printf("  bounding box  %10.1f\n", (double) boxVisits / queries);
+
+        // projected coordinates in metres, far outside the unit square
+        final PointSET brute = new PointSET();
+        final Point2D[] metres = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            metres[i] = new Point2D(StdRandom.uniform(500_000.0, 510_000.0), StdRandom.uniform(4_000_000.0, 4_010_000.0));
+            brute.insert(metres[i]);
+        }
+        final KdTree projected = new KdTree(metres);
+        final int checks = Math.min(queries, 1_000);
+        int wrong = 0;
+        for (int i = 0; i < checks; i++) {
+            final Point2D q = new Point2D(StdRandom.uniform(500_000.0, 510_000.0), StdRandom.uniform(4_000_000.0, 4_010_000.0));
+            if (!projected.nearest(q).equals(brute.nearest(q))) wrong++;
+        }
+        StdOut.printf("wrong nearest neighbors for projected coordinates: %d of %d\n", wrong, checks);
+    }
+
+    private static double[] boundingBox(final Point2D[] points) {
+        double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+        double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+        for (Point2D p : points) {
+            xmin = Math.min(xmin, p.x());
+            ymin = Math.min(ymin, p.y());
+            xmax = Math.max(xmax, p.x());
+            ymax = Math.max(ymax, p.y());
+        }
+        return new double[] { xmin, ymin, xmax, ymax };
+    }
+}
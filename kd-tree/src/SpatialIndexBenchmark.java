@@ -0,0 +1,88 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ *
+ * Times insert, fixed-size range and nearest-neighbor queries on uniformly
+ * distributed points for {@link PointGrid} (adaptive), {@link KdTree} and the
+ * sorted-set {@link PointSET}. PointSET answers fewer queries, since each of
+ * its queries scans a whole horizontal band of points.
+ *
+ * @author mb
+ *
+ */
+public class SpatialIndexBenchmark {
+
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int queries = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        final double side = args.length > 2 ? Double.parseDouble(args[2]) : 0.01; // side of range queries
+
+        final Point2D[] points = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+        }
+        final Point2D[] qs = new Point2D[queries];
+        final RectHV[] rects = new RectHV[queries];
+        for (int i = 0; i < queries; i++) {
+            qs[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+            final double x = StdRandom.uniform(0.0, 1.0 - side), y = StdRandom.uniform(0.0, 1.0 - side);
+            rects[i] = new RectHV(x, y, x + side, y + side);
+        }
+
+        StdOut.printf("%d points, %d queries (per-operation times in microseconds)\n", n, queries);
+        StdOut.printf("%-10s %10s %10s %10s\n", "index", "insert", "range", "nearest");
+
+        // grid
+        Stopwatch stopwatch = new Stopwatch();
+        final PointGrid grid = new PointGrid(new RectHV(0.0, 0.0, 1.0, 1.0));
+        for (Point2D p : points) grid.insert(p);
+        final double gridInsert = stopwatch.elapsedTime();
+        long found = 0;
+        stopwatch = new Stopwatch();
+        for (RectHV rect : rects) for (Point2D p : grid.range(rect)) found++;
+        final double gridRange = stopwatch.elapsedTime();
+        double checksum = 0.0;
+        stopwatch = new Stopwatch();
+        for (Point2D q : qs) checksum += grid.nearest(q).x();
+        final double gridNearest = stopwatch.elapsedTime();
+        print("PointGrid", gridInsert / n, gridRange / queries, gridNearest / queries);
+
+        // kd-tree, built by inserts like the others
+        stopwatch = new Stopwatch();
+        final KdTree tree = new KdTree();
+        for (Point2D p : points) tree.insert(p);
+        final double treeInsert = stopwatch.elapsedTime();
+        stopwatch = new Stopwatch();
+        for (RectHV rect : rects) for (Point2D p : tree.range(rect)) found--;
+        final double treeRange = stopwatch.elapsedTime();
+        stopwatch = new Stopwatch();
+        for (Point2D q : qs) checksum -= tree.nearest(q).x();
+        final double treeNearest = stopwatch.elapsedTime();
+        print("KdTree", treeInsert / n, treeRange / queries, treeNearest / queries);
+
+        // brute force, on a sample of the queries
+        final int bruteQueries = Math.max(1, queries / 1000);
+        double sink = 0.0;
+        stopwatch = new Stopwatch();
+        final PointSET set = new PointSET();
+        for (Point2D p : points) set.insert(p);
+        final double setInsert = stopwatch.elapsedTime();
+        stopwatch = new Stopwatch();
+        for (int i = 0; i < bruteQueries; i++) for (Point2D p : set.range(rects[i])) sink++;
+        final double setRange = stopwatch.elapsedTime();
+        stopwatch = new Stopwatch();
+        for (int i = 0; i < bruteQueries; i++) sink += set.nearest(qs[i]).x();
+        final double setNearest = stopwatch.elapsedTime();
+        print("PointSET", setInsert / n, setRange / bruteQueries, setNearest / bruteQueries);
+
+        StdOut.printf("(grid cell size %.5f; grid vs tree differences %d %f; %f)\n", grid.cellSize(), found, checksum, sink);
+    }
+
+    private static void print(final String name, final double insert, final double range, final double nearest) {
+        StdOut.printf("%-10s %10.3f %10.3f %10.3f\n", name, 1e6 * insert, 1e6 * range, 1e6 * nearest);
+    }
+}
@@ -0,0 +1,181 @@
+import java.util.Arrays;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ *
+ * Immutable 2d-tree packed into a single array. The tree is a complete binary
+ * tree stored in breadth-first order: node i has children 2i + 1 and 2i + 2,
+ * its coordinates are {@code coords[2i]} and {@code coords[2i + 1]}, and the
+ * splitting axis is implied by its depth (x on even levels, y on odd ones).
+ * There are no node objects and no pointers to chase, and the index-based
+ * query methods allocate nothing. The queries are those of
+ * {@link ImplicitKdTree}.
+ *
+ * @author mb
+ *
+ */
+public class StaticKdTree extends ImplicitKdTree {
+
+    private final double[] coords; // x, y of node i at 2i, 2i + 1
+    private final int size; // number of points
+
+    /**
+     * construct the tree of the given points
+     *
+     * @param points points of the set; duplicates are ignored
+     * @throws IllegalArgumentException if points or any of them is null
+     */
+    public StaticKdTree(Point2D[] points) {
+        if (points == null)
+            throw new IllegalArgumentException();
+
+        final Point2D[] copy = points.clone();
+        for (Point2D point : copy) {
+            if (point == null)
+                throw new IllegalArgumentException();
+        }
+
+        Arrays.sort(copy);
+        int n = 0;
+        for (int i = 0; i < copy.length; i++) {
+            if (n == 0 || !copy[i].equals(copy[n - 1])) copy[n++] = copy[i];
+        }
+
+        size = n;
+        coords = new double[2 * n];
+        build(copy, 0, 0, n, true);
+    }
+
+    /**
+     * Places points[lo, hi) into the subtree rooted at {@code node}. The root
+     * is the point whose rank along the axis equals the size of a complete
+     * left subtree, so the array has no holes.
+     */
+    private void build(final Point2D[] points, final int node, final int lo, final int hi, final boolean isVertical) {
+        final int n = hi - lo;
+        if (n == 0)
+            return;
+
+        final int split = lo + leftSubtreeSize(n);
+        select(points, lo, hi - 1, split, isVertical);
+        coords[2 * node] = points[split].x();
+        coords[2 * node + 1] = points[split].y();
+
+        build(points, 2 * node + 1, lo, split, !isVertical);
+        build(points, 2 * node + 2, split + 1, hi, !isVertical);
+    }
+
+    /**
+     * number of nodes in the left subtree of a complete binary tree of n nodes
+     */
+    private static int leftSubtreeSize(final int n) {
+        if (n <= 1)
+            return 0;
+
+        final int height = 31 - Integer.numberOfLeadingZeros(n); // levels below the root
+        final int lastLevelCapacity = 1 << height;
+        final int lastLevel = n - (lastLevelCapacity - 1); // nodes on the last level
+        return (lastLevelCapacity >> 1) - 1 + Math.min(lastLevelCapacity >> 1, lastLevel);
+    }
+
+    /**
+     * rearranges points[lo, hi] so that points[k] has rank k along the axis (3-way quickselect)
+     */
+    private static void select(final Point2D[] points, int lo, int hi, final int k, final boolean isVertical) {
+        while (hi > lo) {
+            swap(points, lo, lo + (hi - lo) / 2);
+            final double pivot = isVertical ? points[lo].x() : points[lo].y();
+            int lt = lo, gt = hi, i = lo + 1;
+            while (i <= gt) {
+                final double c = isVertical ? points[i].x() : points[i].y();
+                if (c < pivot) swap(points, lt++, i++);
+                else if (c > pivot) swap(points, i, gt--);
+                else i++;
+            }
+
+            if (k < lt) hi = lt - 1;
+            else if (k > gt) lo = gt + 1;
+            else return;
+        }
+    }
+
+    private static void swap(final Point2D[] points, final int i, final int j) {
+        final Point2D tmp = points[i];
+        points[i] = points[j];
+        points[j] = tmp;
+    }
+
+    /**
+     * number of points in the set
+     *
+     * @return
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * x-coordinate of the point at node index i
+     *
+     * @param i node index in [0, size)
+     * @return
+     */
+    @Override
+    public double x(int i) {
+        return coords[2 * i];
+    }
+
+    /**
+     * y-coordinate of the point at node index i
+     *
+     * @param i node index in [0, size)
+     * @return
+     */
+    @Override
+    public double y(int i) {
+        return coords[2 * i + 1];
+    }
+
+    /**
+     * times nearest-neighbor queries against {@link KdTree} on n random points
+     */
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        final Point2D[] points = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+        }
+        final double[] qx = new double[queries], qy = new double[queries];
+        for (int i = 0; i < queries; i++) {
+            qx[i] = StdRandom.uniform();
+            qy[i] = StdRandom.uniform();
+        }
+
+        final KdTree tree = new KdTree(points);
+        final StaticKdTree flat = new StaticKdTree(points);
+
+        double checksum = 0.0;
+        Stopwatch stopwatch = new Stopwatch();
+        for (int i = 0; i < queries; i++) {
+            checksum += tree.nearest(new Point2D(qx[i], qy[i])).x();
+        }
+        final double treeTime = stopwatch.elapsedTime();
+
+        stopwatch = new Stopwatch();
+        for (int i = 0; i < queries; i++) {
+            checksum -= flat.x(flat.nearestIndex(qx[i], qy[i]));
+        }
+        final double flatTime = stopwatch.elapsedTime();
+
+        StdOut.printf("KdTree       %8.3f s\n", treeTime);
+        StdOut.printf("StaticKdTree %8.3f s\n", flatTime);
+        StdOut.printf("(checksum %f)\n", checksum);
+    }
+}